@@ -0,0 +1,157 @@
+/**
+ * Precomputed attack tables for the bitboard `Board`.
+ *
+ * Squares are numbered 0 (a1) to 63 (h8), file first, so bit n of a
+ * bitboard stands for square n. Knight, king and pawn attacks are looked
+ * up directly; sliding attacks are built from one ray per direction,
+ * cut off at the first blocker. `between` gives the squares that must be
+ * empty for a slider to reach a square along a line.
+ */
+public final class Attacks {
+
+    public static final long FILE_A = 0x0101010101010101L;
+    public static final long RANK_1 = 0xFFL;
+
+    static final long[] KNIGHT = new long[64];
+    static final long[] KING = new long[64];
+    // PAWN[color][square] holds the squares a pawn of that color attacks.
+    static final long[][] PAWN = new long[2][64];
+
+    // Directions 0-3 move toward higher squares, 4-7 toward lower ones.
+    private static final int[] DIRECTION_FILE = {0, 1, 1, -1, 0, -1, -1, 1};
+    private static final int[] DIRECTION_RANK = {1, 1, 0, 1, -1, -1, 0, -1};
+    private static final long[][] RAYS = new long[8][64];
+    // The squares a bishop or rook attacks from each square of an empty
+    // board.
+    private static final long[] BISHOP_RAYS = new long[64];
+    private static final long[] ROOK_RAYS = new long[64];
+    // BETWEEN[a][b] holds the squares strictly between two squares on a
+    // line, and nothing for squares not on one.
+    private static final long[][] BETWEEN = new long[64][64];
+
+    private static final int NORTH = 0;
+    private static final int NORTH_EAST = 1;
+    private static final int EAST = 2;
+    private static final int NORTH_WEST = 3;
+    private static final int SOUTH = 4;
+    private static final int SOUTH_WEST = 5;
+    private static final int WEST = 6;
+    private static final int SOUTH_EAST = 7;
+
+    static {
+        int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2},
+            {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        for (int square = 0; square < 64; square++) {
+            int file = square & 7;
+            int rank = square >>> 3;
+            for (int[] step : knightSteps) {
+                KNIGHT[square] |= bit(file + step[0], rank + step[1]);
+            }
+            for (int df = -1; df <= 1; df++) {
+                for (int dr = -1; dr <= 1; dr++) {
+                    if (df != 0 || dr != 0) {
+                        KING[square] |= bit(file + df, rank + dr);
+                    }
+                }
+            }
+            PAWN[Board.WHITE][square] = bit(file - 1, rank + 1)
+                | bit(file + 1, rank + 1);
+            PAWN[Board.BLACK][square] = bit(file - 1, rank - 1)
+                | bit(file + 1, rank - 1);
+            for (int d = 0; d < 8; d++) {
+                int f = file + DIRECTION_FILE[d];
+                int r = rank + DIRECTION_RANK[d];
+                while (f >= 0 && f < 8 && r >= 0 && r < 8) {
+                    RAYS[d][square] |= 1L << (r * 8 + f);
+                    f += DIRECTION_FILE[d];
+                    r += DIRECTION_RANK[d];
+                }
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            BISHOP_RAYS[square] = bishop(square, 0L);
+            ROOK_RAYS[square] = rook(square, 0L);
+            for (int d = 0; d < 8; d++) {
+                long ray = RAYS[d][square];
+                for (long rest = ray; rest != 0; rest &= rest - 1) {
+                    int end = Long.numberOfTrailingZeros(rest);
+                    BETWEEN[square][end] = ray & ~RAYS[d][end] & ~(1L << end);
+                }
+            }
+        }
+    }
+
+    private Attacks() {
+    }
+
+    private static long bit(int file, int rank) {
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            return 0L;
+        }
+        return 1L << (rank * 8 + file);
+    }
+
+    private static long ray(int direction, int square, long occupied) {
+        long attacks = RAYS[direction][square];
+        long blockers = attacks & occupied;
+        if (blockers != 0) {
+            int blocker = direction < 4
+                ? Long.numberOfTrailingZeros(blockers)
+                : 63 - Long.numberOfLeadingZeros(blockers);
+            attacks ^= RAYS[direction][blocker];
+        }
+        return attacks;
+    }
+
+    public static long knight(int square) {
+        return KNIGHT[square];
+    }
+
+    public static long king(int square) {
+        return KING[square];
+    }
+
+    public static long pawn(int color, int square) {
+        return PAWN[color][square];
+    }
+
+    public static long bishop(int square, long occupied) {
+        return ray(NORTH_EAST, square, occupied)
+            | ray(NORTH_WEST, square, occupied)
+            | ray(SOUTH_EAST, square, occupied)
+            | ray(SOUTH_WEST, square, occupied);
+    }
+
+    public static long rook(int square, long occupied) {
+        return ray(NORTH, square, occupied)
+            | ray(EAST, square, occupied)
+            | ray(SOUTH, square, occupied)
+            | ray(WEST, square, occupied);
+    }
+
+    public static long queen(int square, long occupied) {
+        return bishop(square, occupied) | rook(square, occupied);
+    }
+
+    /**
+     * @return the squares a bishop on square attacks on an empty board
+     */
+    public static long bishopRays(int square) {
+        return BISHOP_RAYS[square];
+    }
+
+    /**
+     * @return the squares a rook on square attacks on an empty board
+     */
+    public static long rookRays(int square) {
+        return ROOK_RAYS[square];
+    }
+
+    /**
+     * @return the squares strictly between from and to if they share a
+     *     rank, file or diagonal, otherwise no squares
+     */
+    public static long between(int from, int to) {
+        return BETWEEN[from][to];
+    }
+}
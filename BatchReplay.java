@@ -0,0 +1,593 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Replays many games in parallel, computing the seven tag roster and the
+ * final position of each one.
+ *
+ * Games are read on the calling thread and replayed through a `Pipeline`
+ * of worker threads. At most `window` games are in flight at once, which
+ * bounds memory and stops the reader from running ahead of the workers,
+ * and results are delivered in input order. Games read from files reach
+ * the workers as views of the mapped bytes, and only the text of a game
+ * that fails is copied into a String.
+ */
+public class BatchReplay {
+
+    public static final String[] ROSTER = {"Event", "Site", "Date", "Round",
+        "White", "Black", "Result"};
+
+    /**
+     * The outcome of replaying one game.
+     */
+    public static class Result {
+        /** Position of the game in the input, counting from 0. */
+        public final long index;
+        /** Values of the ROSTER tags, in ROSTER order. */
+        public final String[] tags;
+        /** Final position in FEN, or null if the game could not be read. */
+        public final String finalPosition;
+        /** Why the game could not be replayed, or null. */
+        public final RuntimeException error;
+        /** Where the game was read from, such as "a.pgn:1234", or null. */
+        public final String location;
+        /** The text of a game that could not be replayed, or null. */
+        public final String game;
+        // The file the game came from and the offset just past it.
+        final Path file;
+        final long end;
+
+        Result(long index, String[] tags, String finalPosition,
+                RuntimeException error) {
+            this(index, tags, finalPosition, error, null, null, null, -1);
+        }
+
+        Result(long index, String[] tags, String finalPosition,
+                RuntimeException error, String location, String game,
+                Path file, long end) {
+            this.index = index;
+            this.tags = tags;
+            this.finalPosition = finalPosition;
+            this.error = error;
+            this.location = location;
+            this.game = game;
+            this.file = file;
+            this.end = end;
+        }
+
+        /**
+         * @return this result with where its game came from attached,
+         *     and the game's text if it failed
+         */
+        Result at(String location, Path file, long end,
+                CharSequence game) {
+            return new Result(index, tags, finalPosition, error, location,
+                error == null ? null : game.toString(), file, end);
+        }
+    }
+
+    private final int parallelism;
+    private final int window;
+    private boolean headersOnly;
+    private PositionCache cache;
+    private ReplayMetrics metrics;
+
+    /**
+     * @param parallelism the number of worker threads
+     * @param window the most games read but not yet delivered at once
+     */
+    public BatchReplay(int parallelism, int window) {
+        if (parallelism < 1 || window < 1) {
+            throw new IllegalArgumentException(
+                "parallelism and window must be positive");
+        }
+        this.parallelism = parallelism;
+        this.window = window;
+    }
+
+    /**
+     * Replay every game from games and pass each result to sink, in input
+     * order, on the calling thread.
+     *
+     * @param games the PGN text of the games to replay
+     * @param sink receives one Result per game
+     * @return the number of games replayed
+     */
+    public long run(Iterator<? extends CharSequence> games,
+            Consumer<Result> sink) {
+        long count = 0;
+        try (Pipeline<Void, Result> pipeline =
+                new Pipeline<>(parallelism, window, () -> null, sink)) {
+            while (games.hasNext()) {
+                long readStart = metrics == null ? 0 : System.nanoTime();
+                CharSequence game = games.next();
+                if (metrics != null) {
+                    metrics.record(ReplayMetrics.READ,
+                        System.nanoTime() - readStart);
+                }
+                long index = count++;
+                Games source = games instanceof Games ? (Games) games : null;
+                String location = source == null ? null : source.location();
+                Path file = source == null ? null : source.file();
+                long end = source == null ? -1 : source.end();
+                pipeline.submit(worker ->
+                    replay(index, game).at(location, file, end, game));
+            }
+            pipeline.finish();
+        }
+        return count;
+    }
+
+    /**
+     * Read only the tag pairs of each game from now on, skipping replay.
+     * Results then have a null finalPosition.
+     *
+     * @param headersOnly whether to skip the movetext
+     * @return this BatchReplay
+     */
+    public BatchReplay headersOnly(boolean headersOnly) {
+        this.headersOnly = headersOnly;
+        return this;
+    }
+
+    /**
+     * Share cache between the workers, so that replays resume from
+     * opening positions other games have already reached.
+     *
+     * @param cache the cache to use, or null for none
+     * @return this BatchReplay
+     */
+    public BatchReplay cache(PositionCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Record the time each stage of the replay takes in metrics. Games
+     * replayed through a cache have their moves and FEN timed as a whole,
+     * under PLAY, and their plies are not counted.
+     *
+     * @param metrics the metrics to record in, or null for none
+     * @return this BatchReplay
+     */
+    public BatchReplay metrics(ReplayMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Replay a single game, catching anything that goes wrong so that one
+     * bad game does not stop the batch.
+     */
+    Result replay(long index, CharSequence game) {
+        if (metrics != null) {
+            return timedReplay(index, game);
+        }
+        String[] tags = new String[ROSTER.length];
+        try {
+            TagSection section = TagSection.of(game);
+            for (int i = 0; i < ROSTER.length; i++) {
+                String value = section.get(ROSTER[i]);
+                tags[i] = value == null ? "NOT GIVEN" : value;
+            }
+            if (headersOnly) {
+                return new Result(index, tags, null, null);
+            }
+            String position = cache == null
+                ? PgnReader.finalPosition(game)
+                : PgnReader.finalPosition(game, cache);
+            return new Result(index, tags, position, null);
+        } catch (RuntimeException e) {
+            return new Result(index, tags, null, e);
+        }
+    }
+
+    /**
+     * Replay a single game like replay, recording the time spent in each
+     * stage and the plies played in metrics.
+     */
+    private Result timedReplay(long index, CharSequence game) {
+        String[] tags = new String[ROSTER.length];
+        int plies = 0;
+        // A stage left at -1 never ran, and records no sample.
+        long parse = -1;
+        long resolve = -1;
+        long play = -1;
+        long fen = -1;
+        boolean failed = false;
+        long begin = System.nanoTime();
+        try {
+            TagSection section = TagSection.of(game);
+            for (int i = 0; i < ROSTER.length; i++) {
+                String value = section.get(ROSTER[i]);
+                tags[i] = value == null ? "NOT GIVEN" : value;
+            }
+            long t = System.nanoTime();
+            metrics.record(ReplayMetrics.TAGS, t - begin);
+            if (headersOnly) {
+                return new Result(index, tags, null, null);
+            }
+            if (cache != null) {
+                String position = PgnReader.finalPosition(game, cache);
+                play = System.nanoTime() - t;
+                return new Result(index, tags, position, null);
+            }
+
+            parse = 0;
+            resolve = 0;
+            play = 0;
+            Board board = new Board();
+            SanMove move = new SanMove();
+            Movetext movetext = new Movetext(game, section.movetextStart());
+            while (movetext.next()) {
+                if (!move.decode(game, movetext.start(), movetext.end())) {
+                    throw new IllegalArgumentException("Unreadable move "
+                        + game.subSequence(movetext.start(), movetext.end()));
+                }
+                long decoded = System.nanoTime();
+                parse += decoded - t;
+                int played = PgnReader.resolveMove(board, move);
+                long resolved = System.nanoTime();
+                resolve += resolved - decoded;
+                board.executeMove(Move.from(played), Move.to(played),
+                    Move.promotion(played));
+                t = System.nanoTime();
+                play += t - resolved;
+                plies++;
+            }
+            long end = System.nanoTime();
+            parse += end - t;
+            String position = PgnReader.convertBoard(board);
+            fen = System.nanoTime() - end;
+            return new Result(index, tags, position, null);
+        } catch (RuntimeException e) {
+            failed = true;
+            return new Result(index, tags, null, e);
+        } finally {
+            record(ReplayMetrics.PARSE, parse);
+            record(ReplayMetrics.RESOLVE, resolve);
+            record(ReplayMetrics.PLAY, play);
+            record(ReplayMetrics.FEN, fen);
+            metrics.record(ReplayMetrics.GAME, System.nanoTime() - begin);
+            metrics.game(plies, failed);
+        }
+    }
+
+    /**
+     * Record the time a game spent in stage, unless the stage never ran.
+     */
+    private void record(int stage, long nanos) {
+        if (nanos >= 0) {
+            metrics.record(stage, nanos);
+        }
+    }
+
+    /**
+     * Iterate over the games of every PGN file under path, or of path
+     * itself if it is a file. Directories are walked in name order.
+     */
+    static Games games(Path path) throws IOException {
+        return games(path, null);
+    }
+
+    /**
+     * Like games(path), but start each file at the offset checkpoint
+     * has reached in it. A last game with no termination marker may still
+     * be being written, so it is left for a later run.
+     *
+     * @param checkpoint the checkpoint to resume from, or null
+     */
+    static Games games(Path path, Checkpoint checkpoint) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> walk = Files.walk(path)) {
+                walk.filter(p -> p.toString().toLowerCase().endsWith(".pgn"))
+                    .filter(Files::isRegularFile)
+                    .sorted()
+                    .forEach(files::add);
+            }
+        } else {
+            files.add(path);
+        }
+        return new Games(files, checkpoint);
+    }
+
+    /**
+     * The games of a list of PGN files, read through `MappedPgnFile`, that
+     * knows the file and byte offsets of the last game it returned.
+     */
+    static class Games implements Iterator<CharSequence> {
+        private final List<Path> files;
+        private final Checkpoint checkpoint;
+        private int next = 0;
+        private MappedPgnFile current;
+        private Path currentPath;
+        // The game hasNext found, and where it is.
+        private CharSequence pending;
+        private long pendingOffset;
+        private long pendingEnd;
+        // Where the last game returned by next is.
+        private Path file;
+        private long offset;
+        private long end;
+
+        Games(List<Path> files, Checkpoint checkpoint) {
+            this.files = files;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (pending == null) {
+                    if (current == null) {
+                        if (next == files.size()) {
+                            return false;
+                        }
+                        currentPath = files.get(next++);
+                        current = open(currentPath);
+                    }
+                    if (!current.hasNext()) {
+                        current.close();
+                        current = null;
+                        continue;
+                    }
+                    CharSequence game = current.next();
+                    long gameOffset = current.gameOffset();
+                    long gameEnd = current.position();
+                    if (checkpoint != null && !current.hasNext()
+                        && !terminated(game)) {
+                        continue;
+                    }
+                    pending = game;
+                    pendingOffset = gameOffset;
+                    pendingEnd = gameEnd;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+
+        private MappedPgnFile open(Path path) throws IOException {
+            long start = checkpoint == null ? 0 : checkpoint.offset(path);
+            if (start > Files.size(path)) {
+                // The file is shorter than when it was checkpointed, so
+                // it is not the same file; read it all.
+                start = 0;
+            }
+            return new MappedPgnFile(path, start);
+        }
+
+        @Override
+        public CharSequence next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CharSequence game = pending;
+            pending = null;
+            file = currentPath;
+            offset = pendingOffset;
+            end = pendingEnd;
+            return game;
+        }
+
+        /**
+         * @return the file and byte offset of the last game returned, as
+         *     "file:offset"
+         */
+        String location() {
+            return file + ":" + offset;
+        }
+
+        Path file() {
+            return file;
+        }
+
+        /**
+         * @return the byte offset just past the last game returned
+         */
+        long end() {
+            return end;
+        }
+
+        /**
+         * @return whether game ends with a game termination marker
+         */
+        private static boolean terminated(CharSequence game) {
+            int end = game.length();
+            while (end > 0 && Character.isWhitespace(game.charAt(end - 1))) {
+                end--;
+            }
+            int start = end;
+            while (start > 0
+                && !Character.isWhitespace(game.charAt(start - 1))) {
+                start--;
+            }
+            return GameSplitter.isResult(game, start, end);
+        }
+    }
+
+    /**
+     * Write a game that could not be replayed to rejects, behind a '%'
+     * escape line giving where it came from and why it failed. PGN
+     * readers skip escape lines, so the rejects can be fixed and read
+     * again.
+     */
+    static void reject(Result result, Writer rejects) throws IOException {
+        rejects.write("% " + result.location + " game " + result.index
+            + ": " + String.valueOf(result.error.getMessage())
+                .replace('\n', ' ') + "\n");
+        rejects.write(result.game.trim());
+        rejects.write("\n\n");
+    }
+
+    private static void print(Result result) {
+        for (int i = 0; i < ROSTER.length; i++) {
+            System.out.format("%s: %s%n", ROSTER[i], result.tags[i]);
+        }
+        if (result.error == null && result.finalPosition == null) {
+            return;
+        }
+        System.out.println("Final Position:");
+        if (result.error != null) {
+            System.out.format("ERROR: %s%n", result.error.getMessage());
+        } else {
+            System.out.println(result.finalPosition);
+        }
+    }
+
+    /**
+     * Usage: java BatchReplay [-threads n] [-window n] [-headers]
+     *     [-cache positions] [-metrics seconds] [-rejects file]
+     *     [-checkpoint file [-every games]] path...
+     *
+     * Each path is a PGN file or a directory of PGN files. With -headers
+     * only the seven tag roster is printed and the moves are not played.
+     * With -cache, replays share a position cache of the given size,
+     * whose statistics are printed to standard error at the end. With
+     * -metrics, stage timings are collected, registered over JMX and
+     * printed to standard error every given number of seconds and at the
+     * end. With -rejects, games that cannot be replayed are also written
+     * to the given file with their location and error. A file that
+     * cannot be read is reported and skipped. With -checkpoint, progress
+     * is saved to the given file every 10000 games or the -every count,
+     * and a run restarted with the same checkpoint carries on where the
+     * last one saved, appending to the -rejects file, so games after that
+     * point may be printed or rejected twice.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int window = 0;
+        boolean headersOnly = false;
+        int cacheSize = 0;
+        int metricsPeriod = 0;
+        Path rejectsPath = null;
+        Path checkpointPath = null;
+        int every = 10000;
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-window")) {
+                window = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-cache")) {
+                cacheSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-metrics")) {
+                metricsPeriod = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-checkpoint")) {
+                checkpointPath = Paths.get(args[++i]);
+            } else if (args[i].equals("-every")) {
+                every = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-rejects")) {
+                rejectsPath = Paths.get(args[++i]);
+            } else if (args[i].equals("-headers")) {
+                headersOnly = true;
+            } else {
+                paths.add(Paths.get(args[i]));
+            }
+        }
+        if (window == 0) {
+            window = threads * 64;
+        }
+        if (every < 1) {
+            throw new IllegalArgumentException("-every must be positive");
+        }
+
+        PositionCache cache = null;
+        if (cacheSize > 0) {
+            cache = new PositionCache(cacheSize, 20);
+        }
+        ReplayMetrics metrics = null;
+        if (metricsPeriod > 0) {
+            metrics = new ReplayMetrics();
+            metrics.register();
+            metrics.report(System.err, metricsPeriod);
+        }
+        BatchReplay batch = new BatchReplay(threads, window)
+            .headersOnly(headersOnly)
+            .cache(cache)
+            .metrics(metrics);
+        boolean failed = false;
+        Checkpoint checkpoint = checkpointPath == null ? null
+            : Checkpoint.load(checkpointPath);
+        int saveEvery = every;
+        long[] counts = new long[2];
+        // A resumed job adds to the rejects of the runs before it.
+        OpenOption[] append = checkpoint != null
+            && checkpoint.get("games") > 0
+            ? new OpenOption[] {StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND}
+            : new OpenOption[0];
+        try (Writer rejects = rejectsPath == null ? null
+                : Files.newBufferedWriter(rejectsPath, append)) {
+            Consumer<Result> sink = result -> {
+                print(result);
+                try {
+                    if (result.error != null && rejects != null) {
+                        reject(result, rejects);
+                    }
+                    counts[0]++;
+                    if (result.error != null) {
+                        counts[1]++;
+                    }
+                    if (checkpoint != null) {
+                        checkpoint.advance(result.file, result.end);
+                        checkpoint.add("games", 1);
+                        checkpoint.add("errors", result.error == null ? 0 : 1);
+                        if (counts[0] % saveEvery == 0) {
+                            // Output written so far must not be lost if
+                            // the job dies before the next checkpoint.
+                            System.out.flush();
+                            if (rejects != null) {
+                                rejects.flush();
+                            }
+                            checkpoint.save();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            for (Path path : paths) {
+                try {
+                    batch.run(games(path, checkpoint), sink);
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.format("IOException: %s%n", e);
+                    failed = true;
+                }
+            }
+        } catch (IOException e) {
+            System.err.format("IOException: %s%n", e);
+            failed = true;
+        }
+        if (checkpoint != null) {
+            System.out.flush();
+            checkpoint.save();
+            System.err.format("%d games, %d errors this run;"
+                + " %d games, %d errors in all%n", counts[0], counts[1],
+                checkpoint.get("games"), checkpoint.get("errors"));
+        }
+        if (cache != null) {
+            System.err.format("Position cache: %s%n", cache);
+        }
+        if (metrics != null) {
+            System.err.println(metrics.getSummary());
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
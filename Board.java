@@ -0,0 +1,673 @@
+import java.util.Arrays;
+
+/**
+ * A chess position held as bitboards: one `long` per piece type and
+ * color, plus a square-indexed lookup of the piece on each square.
+ *
+ * Squares are numbered 0 (a1) to 63 (h8) as in `Attacks`. Pieces are
+ * coded color * 6 + type, so white pieces are 0-5 and black pieces 6-11,
+ * and an empty square holds EMPTY.
+ *
+ * Moves played with makeMove can be taken back with unmakeMove. Each one
+ * pushes what the move destroys (the captured piece, castling rights, en
+ * passant square, halfmove clock and hash) onto an undo stack that grows
+ * only when a line is deeper than any before it, so walking variations
+ * neither allocates nor copies the board.
+ */
+public class Board {
+
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    public static final int EMPTY = -1;
+
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+
+    // Castling rights kept when a piece moves from or to each square.
+    private static final int[] CASTLING_KEPT = new int[64];
+
+    static {
+        Arrays.fill(CASTLING_KEPT, 15);
+        CASTLING_KEPT[0] = ~WHITE_QUEENSIDE & 15;
+        CASTLING_KEPT[4] = ~(WHITE_KINGSIDE | WHITE_QUEENSIDE) & 15;
+        CASTLING_KEPT[7] = ~WHITE_KINGSIDE & 15;
+        CASTLING_KEPT[56] = ~BLACK_QUEENSIDE & 15;
+        CASTLING_KEPT[60] = ~(BLACK_KINGSIDE | BLACK_QUEENSIDE) & 15;
+        CASTLING_KEPT[63] = ~BLACK_KINGSIDE & 15;
+    }
+
+    private static final String LETTERS = "PNBRQKpnbrqk";
+
+    final long[] pieces = new long[12];
+    final long[] colors = new long[2];
+    long occupied;
+    final int[] squares = new int[64];
+    int sideToMove;
+    int castling;
+    int enPassant;
+    int halfmoveClock;
+    int fullmoveNumber;
+    long hash;
+    // The en passant part of hash, which is 0 when no capture is possible.
+    long enPassantKey;
+    // The undo stack: per made move, its squares, captured piece and the
+    // state it replaced packed as in makeMove, and the hash and en passant
+    // key before it.
+    private long[] undoState;
+    private long[] undoHash;
+    private int undoDepth;
+
+    public Board() {
+        reset();
+    }
+
+    /**
+     * Set up the standard starting position with white to move.
+     */
+    public void reset() {
+        clear();
+        String backRank = "RNBQKBNR";
+        for (int file = 0; file < 8; file++) {
+            int type = LETTERS.indexOf(backRank.charAt(file));
+            put(piece(WHITE, type), file);
+            put(piece(WHITE, PAWN), 8 + file);
+            put(piece(BLACK, PAWN), 48 + file);
+            put(piece(BLACK, type), 56 + file);
+        }
+        sideToMove = WHITE;
+        castling = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE
+            | BLACK_QUEENSIDE;
+        hash ^= Zobrist.CASTLING[castling];
+        enPassant = -1;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+    }
+
+    private void clear() {
+        Arrays.fill(pieces, 0L);
+        Arrays.fill(squares, EMPTY);
+        colors[WHITE] = 0L;
+        colors[BLACK] = 0L;
+        occupied = 0L;
+        hash = 0L;
+        enPassantKey = 0L;
+        enPassant = -1;
+        undoDepth = 0;
+    }
+
+    /**
+     * Set up the position described by a FEN string. The halfmove and
+     * fullmove fields may be left out.
+     *
+     * @param fen a position in Forsyth-Edwards Notation
+     * @throws IllegalArgumentException if fen is not a valid FEN
+     */
+    public void setFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("Not a FEN: " + fen);
+        }
+        clear();
+        int rank = 7;
+        int file = 0;
+        for (char c : fields[0].toCharArray()) {
+            if (c == '/') {
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+            } else if (pieceOf(c) != EMPTY && file < 8 && rank >= 0) {
+                put(pieceOf(c), square(file++, rank));
+            } else {
+                throw new IllegalArgumentException("Not a FEN: " + fen);
+            }
+        }
+
+        sideToMove = fields[1].equals("b") ? BLACK : WHITE;
+        if (sideToMove == BLACK) {
+            hash ^= Zobrist.SIDE;
+        }
+        castling = 0;
+        for (char c : fields[2].toCharArray()) {
+            int right = "KQkq".indexOf(c);
+            if (right >= 0) {
+                castling |= 1 << right;
+            }
+        }
+        hash ^= Zobrist.CASTLING[castling];
+        setEnPassant(fields[3].equals("-") ? -1 : square(fields[3]));
+        halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+        fullmoveNumber = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+    }
+
+    public static int piece(int color, int type) {
+        return color * 6 + type;
+    }
+
+    public static int colorOf(int piece) {
+        return piece < 6 ? WHITE : BLACK;
+    }
+
+    public static int typeOf(int piece) {
+        return piece < 6 ? piece : piece - 6;
+    }
+
+    /**
+     * @param letter a FEN piece letter such as 'N' or 'q'
+     * @return the piece code for letter, or EMPTY if it is not a piece
+     */
+    public static int pieceOf(char letter) {
+        int index = LETTERS.indexOf(letter);
+        return index < 0 ? EMPTY : index;
+    }
+
+    /**
+     * @param piece a piece code
+     * @return the FEN letter for piece
+     */
+    public static char letterOf(int piece) {
+        return LETTERS.charAt(piece);
+    }
+
+    public static int square(int file, int rank) {
+        return rank * 8 + file;
+    }
+
+    public static int fileOf(int square) {
+        return square & 7;
+    }
+
+    public static int rankOf(int square) {
+        return square >>> 3;
+    }
+
+    /**
+     * @param name a square in algebraic notation, such as "e4"
+     * @return the square number of name
+     */
+    public static int square(String name) {
+        return square(name.charAt(0) - 'a', name.charAt(1) - '1');
+    }
+
+    public static String squareName(int square) {
+        return new String(new char[] {(char) ('a' + fileOf(square)),
+            (char) ('1' + rankOf(square))});
+    }
+
+    /**
+     * Make this board a copy of other. The moves made on other are not
+     * copied, so none can be taken back on this board.
+     *
+     * @param other the board to copy
+     */
+    public void copyFrom(Board other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, 12);
+        System.arraycopy(other.colors, 0, colors, 0, 2);
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        occupied = other.occupied;
+        sideToMove = other.sideToMove;
+        castling = other.castling;
+        enPassant = other.enPassant;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        hash = other.hash;
+        enPassantKey = other.enPassantKey;
+        undoDepth = 0;
+    }
+
+    /**
+     * @return the Zobrist hash of this position
+     */
+    public long hash() {
+        return hash;
+    }
+
+    public int sideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * @return the castling rights still held, as a combination of
+     *     WHITE_KINGSIDE, WHITE_QUEENSIDE, BLACK_KINGSIDE and
+     *     BLACK_QUEENSIDE
+     */
+    public int castling() {
+        return castling;
+    }
+
+    /**
+     * @return the square a pawn just skipped with a two-square move, or
+     *     -1
+     */
+    public int enPassant() {
+        return enPassant;
+    }
+
+    public int halfmoveClock() {
+        return halfmoveClock;
+    }
+
+    public int fullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    public int pieceAt(int square) {
+        return squares[square];
+    }
+
+    public long pieces(int piece) {
+        return pieces[piece];
+    }
+
+    private void put(int piece, int square) {
+        long bit = 1L << square;
+        pieces[piece] |= bit;
+        colors[colorOf(piece)] |= bit;
+        occupied |= bit;
+        squares[square] = piece;
+        hash ^= Zobrist.PIECES[piece][square];
+    }
+
+    private void remove(int square) {
+        int piece = squares[square];
+        long bit = ~(1L << square);
+        pieces[piece] &= bit;
+        colors[colorOf(piece)] &= bit;
+        occupied &= bit;
+        squares[square] = EMPTY;
+        hash ^= Zobrist.PIECES[piece][square];
+    }
+
+    /**
+     * Squares attacked by piece standing on from, given the current
+     * occupancy.
+     */
+    long attacks(int piece, int from, long occupancy) {
+        switch (typeOf(piece)) {
+        case PAWN:
+            return Attacks.pawn(colorOf(piece), from);
+        case KNIGHT:
+            return Attacks.knight(from);
+        case BISHOP:
+            return Attacks.bishop(from, occupancy);
+        case ROOK:
+            return Attacks.rook(from, occupancy);
+        case QUEEN:
+            return Attacks.queen(from, occupancy);
+        default:
+            return Attacks.king(from);
+        }
+    }
+
+    /**
+     * Whether piece standing on from could move to to, ignoring checks.
+     */
+    public boolean isValidMove(int piece, int from, int to) {
+        long target = 1L << to;
+        int color = colorOf(piece);
+        if ((colors[color] & target) != 0) {
+            return false;
+        } else if (typeOf(piece) != PAWN) {
+            return (attacks(piece, from, occupied) & target) != 0;
+        }
+        int forward = color == WHITE ? 8 : -8;
+        if (fileOf(from) != fileOf(to)) {
+            // Captures need an enemy piece on the target square, unless
+            // they capture en passant.
+            if ((Attacks.pawn(color, from) & target) == 0) {
+                return false;
+            } else if (squares[to] != EMPTY) {
+                return colorOf(squares[to]) != color;
+            }
+            return to == enPassant;
+        }
+        if (to - from == forward) {
+            return (occupied & target) == 0;
+        }
+        int startRank = colorOf(piece) == WHITE ? 1 : 6;
+        return to - from == 2 * forward && rankOf(from) == startRank
+            && (occupied & (target | 1L << (from + forward))) == 0;
+    }
+
+    /**
+     * Find the square the piece described by a SAN move comes from.
+     *
+     * The candidates are found by looking backward from the destination:
+     * the squares a piece of the same kind standing on to would attack,
+     * intersected with the moving pieces and the disambiguation mask. The
+     * first of those that does not leave its own king in check moves.
+     *
+     * @param piece the piece code of the moving piece
+     * @param to the destination square
+     * @param fromMask the squares the move's disambiguation allows, or -1L
+     * @param capture whether the move is written as a capture, which
+     *     tells a pawn's capture from its push
+     * @return the origin square, or -1 if no such piece can legally move
+     *     to to
+     */
+    public int determineMove(int piece, int to, long fromMask,
+            boolean capture) {
+        int color = colorOf(piece);
+        if ((colors[color] & 1L << to) != 0) {
+            // A piece cannot capture its own side.
+            return -1;
+        }
+        long candidates = pieces[piece] & fromMask;
+        switch (typeOf(piece)) {
+        case PAWN:
+            candidates &= pawnOrigins(color, to, capture);
+            break;
+        case KNIGHT:
+            candidates &= Attacks.knight(to);
+            break;
+        case BISHOP:
+            candidates &= Attacks.bishop(to, occupied);
+            break;
+        case ROOK:
+            candidates &= Attacks.rook(to, occupied);
+            break;
+        case QUEEN:
+            candidates &= Attacks.queen(to, occupied);
+            break;
+        default:
+            candidates &= Attacks.king(to);
+            break;
+        }
+        // Even a lone candidate may be pinned or leave its king in check.
+        for (; candidates != 0; candidates &= candidates - 1) {
+            int from = Long.numberOfTrailingZeros(candidates);
+            if (!leavesKingInCheck(from, to)) {
+                return from;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Squares from which a pawn of color could reach to: diagonally
+     * behind it for a capture of a piece or en passant, straight behind
+     * an empty square otherwise.
+     */
+    private long pawnOrigins(int color, int to, boolean capture) {
+        if (capture) {
+            return squares[to] != EMPTY || to == enPassant
+                ? Attacks.pawn(color ^ 1, to) : 0L;
+        } else if (squares[to] != EMPTY) {
+            return 0L;
+        }
+        int back = color == WHITE ? to - 8 : to + 8;
+        if (back < 0 || back > 63) {
+            return 0L;
+        } else if (squares[back] != EMPTY) {
+            return 1L << back;
+        }
+        int start = color == WHITE ? 3 : 4;
+        if (rankOf(to) == start) {
+            return 1L << (color == WHITE ? to - 16 : to + 16);
+        }
+        return 0L;
+    }
+
+    /**
+     * Whether moving the piece on from to to would leave its own king
+     * attacked.
+     */
+    public boolean leavesKingInCheck(int from, int to) {
+        int piece = squares[from];
+        int color = colorOf(piece);
+        int enemy = color ^ 1;
+        long captured = 1L << to;
+        if (typeOf(piece) == PAWN && squares[to] == EMPTY
+            && fileOf(from) != fileOf(to)) {
+            captured = 1L << (to + (color == WHITE ? -8 : 8));
+        }
+        long occupancy = (occupied & ~(1L << from) & ~captured) | 1L << to;
+        long kings = pieces[piece(color, KING)];
+        int king = typeOf(piece) == KING ? to
+            : Long.numberOfTrailingZeros(kings);
+        int base = enemy * 6;
+        long steppers = (Attacks.knight(king) & pieces[base + KNIGHT])
+            | (Attacks.king(king) & pieces[base + KING])
+            | (Attacks.pawn(color, king) & pieces[base + PAWN]);
+        if ((steppers & ~captured) != 0) {
+            return true;
+        }
+        // Only sliders on the king's lines can reach it, and each does
+        // unless a piece stands between them.
+        long queens = pieces[base + QUEEN];
+        long sliders = (((pieces[base + BISHOP] | queens)
+            & Attacks.bishopRays(king))
+            | ((pieces[base + ROOK] | queens) & Attacks.rookRays(king)))
+            & ~captured;
+        for (; sliders != 0; sliders &= sliders - 1) {
+            int slider = Long.numberOfTrailingZeros(sliders);
+            if ((Attacks.between(king, slider) & occupancy) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pieces of color that attack square, given occupancy.
+     */
+    long attackersOf(int square, int color, long occupancy) {
+        int base = color * 6;
+        long queens = pieces[base + QUEEN];
+        return (Attacks.knight(square) & pieces[base + KNIGHT])
+            | (Attacks.king(square) & pieces[base + KING])
+            | (Attacks.pawn(color ^ 1, square) & pieces[base + PAWN])
+            | (Attacks.bishop(square, occupancy)
+                & (pieces[base + BISHOP] | queens))
+            | (Attacks.rook(square, occupancy)
+                & (pieces[base + ROOK] | queens));
+    }
+
+    /**
+     * Play a move and pass the turn to the other side. Captures, en
+     * passant and castling (a king moving two files) are detected from
+     * the board.
+     *
+     * @param from the origin square
+     * @param to the destination square
+     * @param promotion the piece type a pawn promotes to, or EMPTY
+     * @throws IllegalArgumentException if from does not hold a piece of
+     *     the side to move, or to holds a king
+     */
+    public void executeMove(int from, int to, int promotion) {
+        int piece = mover(from, to);
+        int color = colorOf(piece);
+        int type = typeOf(piece);
+
+        halfmoveClock++;
+        if (squares[to] != EMPTY) {
+            remove(to);
+            halfmoveClock = 0;
+        } else if (type == PAWN && fileOf(from) != fileOf(to)) {
+            remove(to + (color == WHITE ? -8 : 8));
+        }
+        if (type == PAWN) {
+            halfmoveClock = 0;
+        }
+        remove(from);
+        put(promotion == EMPTY ? piece : piece(color, promotion), to);
+
+        if (type == KING && to - from == 2) {
+            int rook = squares[to + 1];
+            remove(to + 1);
+            put(rook, to - 1);
+        } else if (type == KING && from - to == 2) {
+            int rook = squares[to - 2];
+            remove(to - 2);
+            put(rook, to + 1);
+        }
+
+        hash ^= Zobrist.CASTLING[castling];
+        castling &= CASTLING_KEPT[from] & CASTLING_KEPT[to];
+        hash ^= Zobrist.CASTLING[castling];
+        setEnPassant(type == PAWN && (to - from == 16 || from - to == 16)
+            ? (from + to) / 2 : -1);
+        if (color == BLACK) {
+            fullmoveNumber++;
+        }
+        sideToMove ^= 1;
+        hash ^= Zobrist.SIDE;
+    }
+
+    /**
+     * Play a move like executeMove, keeping what is needed to take it back
+     * with unmakeMove.
+     *
+     * @param from the origin square
+     * @param to the destination square
+     * @param promotion the piece type a pawn promotes to, or EMPTY
+     * @throws IllegalArgumentException if from does not hold a piece of
+     *     the side to move, or to holds a king
+     */
+    public void makeMove(int from, int to, int promotion) {
+        int piece = mover(from, to);
+        int captured = squares[to];
+        if (captured == EMPTY && to == enPassant && typeOf(piece) == PAWN) {
+            captured = piece(sideToMove ^ 1, PAWN);
+        }
+        if (undoState == null) {
+            undoState = new long[256];
+            undoHash = new long[512];
+        } else if (undoDepth == undoState.length) {
+            undoState = Arrays.copyOf(undoState, undoDepth * 2);
+            undoHash = Arrays.copyOf(undoHash, undoDepth * 4);
+        }
+        // from 0-5, to 6-11, promoted 12, captured + 1 13-16, castling
+        // 17-20, en passant + 1 21-27, halfmove clock 32-63.
+        undoState[undoDepth] = from | to << 6
+            | (promotion == EMPTY ? 0 : 1 << 12)
+            | (captured + 1) << 13 | castling << 17
+            | (enPassant + 1) << 21 | (long) halfmoveClock << 32;
+        undoHash[2 * undoDepth] = hash;
+        undoHash[2 * undoDepth + 1] = enPassantKey;
+        undoDepth++;
+        executeMove(from, to, promotion);
+    }
+
+    /**
+     * @return the piece on from
+     * @throws IllegalArgumentException if from does not hold a piece of
+     *     the side to move, or to holds a king
+     */
+    private int mover(int from, int to) {
+        int piece = squares[from];
+        if (piece == EMPTY || colorOf(piece) != sideToMove) {
+            throw new IllegalArgumentException("No piece of the side to"
+                + " move on " + squareName(from));
+        } else if (squares[to] != EMPTY && typeOf(squares[to]) == KING) {
+            // Only reachable after a move that left its king in check.
+            throw new IllegalArgumentException("Cannot capture the king on "
+                + squareName(to));
+        }
+        return piece;
+    }
+
+    /**
+     * Take back the last move played with makeMove.
+     *
+     * @throws IllegalStateException if there is no move to take back
+     */
+    public void unmakeMove() {
+        if (undoDepth == 0) {
+            throw new IllegalStateException("No move to take back");
+        }
+        long state = undoState[--undoDepth];
+        int from = (int) state & 63;
+        int to = (int) (state >>> 6) & 63;
+        int captured = (int) (state >>> 13 & 15) - 1;
+        sideToMove ^= 1;
+        if (sideToMove == BLACK) {
+            fullmoveNumber--;
+        }
+        castling = (int) (state >>> 17) & 15;
+        enPassant = (int) (state >>> 21 & 127) - 1;
+        halfmoveClock = (int) (state >>> 32);
+
+        int piece = squares[to];
+        if ((state & 1 << 12) != 0) {
+            piece = piece(sideToMove, PAWN);
+        }
+        // The hash is restored whole, so pieces are moved without it.
+        lift(to);
+        place(piece, from);
+        if (typeOf(piece) == PAWN && to == enPassant) {
+            place(captured, to + (sideToMove == WHITE ? -8 : 8));
+        } else if (captured != EMPTY) {
+            place(captured, to);
+        }
+        if (typeOf(piece) == KING && to - from == 2) {
+            int rook = squares[to - 1];
+            lift(to - 1);
+            place(rook, to + 1);
+        } else if (typeOf(piece) == KING && from - to == 2) {
+            int rook = squares[to + 1];
+            lift(to + 1);
+            place(rook, to - 2);
+        }
+
+        hash = undoHash[2 * undoDepth];
+        enPassantKey = undoHash[2 * undoDepth + 1];
+    }
+
+    private void place(int piece, int square) {
+        long bit = 1L << square;
+        pieces[piece] |= bit;
+        colors[colorOf(piece)] |= bit;
+        occupied |= bit;
+        squares[square] = piece;
+    }
+
+    private void lift(int square) {
+        int piece = squares[square];
+        long bit = ~(1L << square);
+        pieces[piece] &= bit;
+        colors[colorOf(piece)] &= bit;
+        occupied &= bit;
+        squares[square] = EMPTY;
+    }
+
+    /**
+     * @return the number of moves unmakeMove can take back
+     */
+    public int undoDepth() {
+        return undoDepth;
+    }
+
+    /**
+     * Record the en passant target square. It is only hashed when an
+     * enemy pawn could actually capture there, so positions that differ
+     * in nothing else hash the same.
+     */
+    private void setEnPassant(int square) {
+        hash ^= enPassantKey;
+        enPassant = square;
+        enPassantKey = 0L;
+        if (enPassant >= 0 && canCaptureEnPassant()) {
+            enPassantKey = Zobrist.EN_PASSANT[fileOf(enPassant)];
+        }
+        hash ^= enPassantKey;
+    }
+
+    private boolean canCaptureEnPassant() {
+        // The capturing side is the one whose turn it is after the push:
+        // black when the target is on rank 3, white when it is on rank 6.
+        int capturer = rankOf(enPassant) == 2 ? BLACK : WHITE;
+        return (Attacks.pawn(capturer ^ 1, enPassant)
+            & pieces[piece(capturer, PAWN)]) != 0;
+    }
+}
@@ -0,0 +1,48 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A `CharSequence` view of a range of bytes, one char per byte. PGN is
+ * ASCII apart from player and event names, so parsers can read tags and
+ * moves straight from a (memory-mapped) buffer; only toString decodes
+ * the bytes, as UTF-8, into a `String`.
+ */
+public final class ByteText implements CharSequence {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param buffer the bytes to view; its position and limit are ignored
+     * @param offset the index in buffer of the first byte
+     * @param length the number of bytes to view
+     */
+    public ByteText(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public ByteText subSequence(int start, int end) {
+        return new ByteText(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
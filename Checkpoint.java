@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * How far a long job has got through its PGN files, kept in a small
+ * properties file so a restarted job can seek straight past the games it
+ * has already processed.
+ *
+ * A checkpoint holds the byte offset reached in each file and any number
+ * of named counters the job aggregates, such as games and errors. It is
+ * saved by writing a new file and renaming it over the old one, so a job
+ * that dies while saving leaves the previous checkpoint intact. A file
+ * that has grown since the checkpoint is read on from its old end, so
+ * only the appended games are processed.
+ */
+public class Checkpoint {
+
+    private final Path path;
+    private final Properties values = new Properties();
+
+    private Checkpoint(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Read the checkpoint at path, or start an empty one if there is none.
+     */
+    public static Checkpoint load(Path path) throws IOException {
+        Checkpoint checkpoint = new Checkpoint(path);
+        if (Files.exists(path)) {
+            try (Reader in = Files.newBufferedReader(path)) {
+                checkpoint.values.load(in);
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return the byte offset processed up to in file, 0 if none
+     */
+    public long offset(Path file) {
+        return get("offset." + key(file));
+    }
+
+    /**
+     * Record that file has been processed up to offset.
+     */
+    public void advance(Path file, long offset) {
+        set("offset." + key(file), offset);
+    }
+
+    /**
+     * @return the named counter, 0 if it was never set
+     */
+    public long get(String name) {
+        return Long.parseLong(values.getProperty(name, "0"));
+    }
+
+    public void set(String name, long value) {
+        values.setProperty(name, Long.toString(value));
+    }
+
+    /**
+     * Add delta to the named counter.
+     */
+    public void add(String name, long delta) {
+        set(name, get(name) + delta);
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Write the checkpoint, replacing the saved one in a single rename.
+     */
+    public void save() throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary)) {
+            values.store(out, "PGN replay checkpoint");
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports the tag roster and replay results of many games as columns, in
+ * a self-describing binary file that analytics tools can load without
+ * parsing text.
+ *
+ * The file is MAGIC and VERSION followed by row groups of up to GROUP
+ * games, each one the number of rows and columns, then every column: its
+ * name, its type and its values. There are three types:
+ *
+ *   DICTIONARY  strings such as player names, as the strings of the
+ *               group's dictionary followed by one int code per row
+ *   INT         one int per row
+ *   STRING      one string per row, as a length and UTF-8 bytes each
+ *
+ * All numbers are big-endian, and strings are a short length and UTF-8
+ * bytes unless noted. A file ends after a group of 0 rows. Output goes
+ * through one direct buffer drained to a `FileChannel`.
+ */
+public class ColumnarExport implements Closeable {
+
+    static final int MAGIC = 0x50474E43;
+    static final int VERSION = 1;
+    static final int GROUP = 1 << 16;
+
+    static final byte DICTIONARY = 1;
+    static final byte INT = 2;
+    static final byte STRING = 3;
+
+    private static final String[] RESULTS = {"*", "1-0", "0-1", "1/2-1/2"};
+
+    private final FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+    private final Replayer replayer = new Replayer();
+    private final FenWriter fen = new FenWriter();
+
+    // The columns of the current group.
+    private final Dictionary event = new Dictionary("Event");
+    private final Dictionary site = new Dictionary("Site");
+    private final Dictionary round = new Dictionary("Round");
+    private final Dictionary white = new Dictionary("White");
+    private final Dictionary black = new Dictionary("Black");
+    private final int[] date = new int[GROUP];
+    private final int[] result = new int[GROUP];
+    private final int[] whiteElo = new int[GROUP];
+    private final int[] blackElo = new int[GROUP];
+    private final int[] plies = new int[GROUP];
+    private final byte[][] fens = new byte[GROUP][];
+    private int rows;
+    // The tags and length of the game being replayed.
+    private TagSection tags;
+    private int gamePlies;
+
+    /**
+     * A dictionary-encoded string column.
+     */
+    private static final class Dictionary {
+        final String name;
+        final Map<String, Integer> codes = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+        final int[] rows = new int[GROUP];
+
+        Dictionary(String name) {
+            this.name = name;
+        }
+
+        void add(int row, String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            rows[row] = code;
+        }
+
+        void clear() {
+            codes.clear();
+            values.clear();
+        }
+    }
+
+    /**
+     * @param path the file to write, which is replaced
+     */
+    public ColumnarExport(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        out.putInt(MAGIC).putInt(VERSION);
+        replayer.addListener(new PlyListener() {
+            @Override
+            public void startGame(CharSequence game, TagSection section) {
+                tags = section;
+            }
+
+            @Override
+            public void ply(int ply, int move, int captured, Board board) {
+            }
+
+            @Override
+            public void endGame(int plies, Board board) {
+                gamePlies = plies;
+            }
+        });
+    }
+
+    /**
+     * Replay game and add its row.
+     */
+    public void add(CharSequence game) throws IOException {
+        int row = rows;
+        int played;
+        byte[] position;
+        try {
+            Board board = replayer.replay(game);
+            played = gamePlies;
+            position = fen.write(board).toString()
+                .getBytes(StandardCharsets.US_ASCII);
+        } catch (IllegalArgumentException e) {
+            // Unplayable games keep their tags, with -1 plies and no FEN.
+            played = -1;
+            position = new byte[0];
+        }
+        event.add(row, tag("Event"));
+        site.add(row, tag("Site"));
+        round.add(row, tag("Round"));
+        white.add(row, tag("White"));
+        black.add(row, tag("Black"));
+        date[row] = date(tag("Date"));
+        result[row] = Math.max(0, Arrays.asList(RESULTS).indexOf(
+            tag("Result")));
+        whiteElo[row] = number(tag("WhiteElo"));
+        blackElo[row] = number(tag("BlackElo"));
+        plies[row] = played;
+        fens[row] = position;
+        if (++rows == GROUP) {
+            flushGroup();
+        }
+    }
+
+    private String tag(String name) {
+        String value = tags.get(name);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * @return a PGN date such as "1858.??.??" as the int 18580000, with
+     *     unknown parts 0
+     */
+    static int date(String value) {
+        String[] parts = value.split("\\.");
+        int date = 0;
+        for (int i = 0; i < 3; i++) {
+            date = date * (i == 0 ? 1 : 100)
+                + (i < parts.length ? number(parts[i]) : 0);
+        }
+        return date;
+    }
+
+    private static int number(String value) {
+        try {
+            return value.isEmpty() ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void flushGroup() throws IOException {
+        ensure(8);
+        out.putInt(rows).putInt(11);
+        for (Dictionary column : new Dictionary[] {event, site, round, white,
+                black}) {
+            header(column.name, DICTIONARY);
+            ensure(4);
+            out.putInt(column.values.size());
+            for (String value : column.values) {
+                putString(value);
+            }
+            putInts(column.rows);
+            column.clear();
+        }
+        header("Date", INT);
+        putInts(date);
+        header("Result", INT);
+        putInts(result);
+        header("WhiteElo", INT);
+        putInts(whiteElo);
+        header("BlackElo", INT);
+        putInts(blackElo);
+        header("Plies", INT);
+        putInts(plies);
+        header("FEN", STRING);
+        for (int row = 0; row < rows; row++) {
+            ensure(2 + fens[row].length);
+            out.putShort((short) fens[row].length).put(fens[row]);
+        }
+        rows = 0;
+    }
+
+    private void header(String name, byte type) throws IOException {
+        putString(name);
+        ensure(1);
+        out.put(type);
+    }
+
+    private void putInts(int[] values) throws IOException {
+        for (int row = 0; row < rows; row++) {
+            ensure(4);
+            out.putInt(values[row]);
+        }
+    }
+
+    private void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, Short.MAX_VALUE);
+        // Cut a long value before a character, not inside one.
+        while (length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        ensure(2 + length);
+        out.putShort((short) length).put(bytes, 0, length);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            FenWriter.drain(out, channel);
+        }
+    }
+
+    /**
+     * Write the last group and the end marker, and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (rows > 0) {
+            flushGroup();
+        }
+        ensure(8);
+        out.putInt(0).putInt(0);
+        FenWriter.drain(out, channel);
+        channel.close();
+    }
+
+    /**
+     * Print an exported file as CSV with a header line, for checking.
+     */
+    static void dump(Path path) throws IOException {
+        ByteBuffer in;
+        try (FileChannel file = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            in = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException(path + " is not a columnar export");
+        }
+        boolean first = true;
+        int rows;
+        while ((rows = in.getInt()) > 0) {
+            int count = in.getInt();
+            String[] names = new String[count];
+            String[][] columns = new String[count][rows];
+            for (int c = 0; c < count; c++) {
+                names[c] = getString(in);
+                byte type = in.get();
+                if (type == DICTIONARY) {
+                    String[] values = new String[in.getInt()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = getString(in);
+                    }
+                    for (int row = 0; row < rows; row++) {
+                        columns[c][row] = values[in.getInt()];
+                    }
+                } else if (type == INT) {
+                    for (int row = 0; row < rows; row++) {
+                        columns[c][row] = Integer.toString(in.getInt());
+                    }
+                } else {
+                    for (int row = 0; row < rows; row++) {
+                        columns[c][row] = getString(in);
+                    }
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            if (first) {
+                sb.append(String.join(",", names)).append('\n');
+                first = false;
+            }
+            for (int row = 0; row < rows; row++) {
+                for (int c = 0; c < count; c++) {
+                    if (c > 0) {
+                        sb.append(',');
+                    }
+                    String value = columns[c][row];
+                    if (needsQuotes(value)) {
+                        value = '"' + value.replace("\"", "\"\"") + '"';
+                    }
+                    sb.append(value);
+                }
+                sb.append('\n');
+            }
+            System.out.print(sb);
+        }
+    }
+
+    /**
+     * @return whether a CSV field holding value must be quoted
+     */
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Usage: java ColumnarExport out files...
+     *        java ColumnarExport -dump file
+     *
+     * Replays every game of the PGN files and writes one row per game to
+     * out. -dump prints an exported file as CSV.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args[0].equals("-dump")) {
+            dump(Paths.get(args[1]));
+            return;
+        }
+        long games = 0;
+        try (ColumnarExport export = new ColumnarExport(Paths.get(args[0]))) {
+            for (int i = 1; i < args.length; i++) {
+                try (MappedPgnFile file = new MappedPgnFile(
+                        Paths.get(args[i]))) {
+                    while (file.hasNext()) {
+                        export.add(file.next());
+                        games++;
+                    }
+                }
+            }
+        }
+        System.err.format("%d games%n", games);
+    }
+}
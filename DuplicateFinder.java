@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds games that appear more than once across PGN files, however their
+ * tags differ, in one streaming pass.
+ *
+ * A game's fingerprint is a rolling hash of the moves it plays, as
+ * resolved squares so "Nbd2" and "Nd2+" are the same move, together with
+ * the Zobrist hash of its final position. Fingerprints go through a Bloom
+ * filter first; only those it may have seen are looked up in an exact
+ * set of fingerprints kept off the heap, which also tells where the first
+ * copy of a game is. Memory use is a few bytes of filter and one set
+ * entry per distinct game.
+ */
+public class DuplicateFinder {
+
+    /** Games read per batch handed to a worker. */
+    static final int BATCH = 256;
+
+    private final BloomFilter filter;
+    private final FingerprintSet seen;
+    private long games;
+    private long duplicates;
+    private long maybes;
+
+    /**
+     * @param expected the number of distinct games the filter and set are
+     *     sized for; more are handled, with more Bloom filter false
+     *     positives
+     */
+    public DuplicateFinder(long expected) {
+        filter = new BloomFilter(expected);
+        seen = new FingerprintSet(expected);
+    }
+
+    /**
+     * Record a game's fingerprint.
+     *
+     * @param moves the hash of the game's moves
+     * @param position the hash of its final position
+     * @param where what to return for later copies of the game
+     * @return where of the first game with this fingerprint, or -1 if it
+     *     is the first
+     */
+    public long add(long moves, long position, long where) {
+        games++;
+        if (!filter.add(moves, position)) {
+            seen.insert(moves, position, where);
+            return -1;
+        }
+        maybes++;
+        long first = seen.putIfAbsent(moves, position, where);
+        if (first >= 0) {
+            duplicates++;
+        }
+        return first;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d games, %d duplicates, %d distinct;"
+            + " %d Bloom filter hits, %d false; %d MB filter, %d MB set",
+            games, duplicates, games - duplicates, maybes,
+            maybes - duplicates, filter.bytes() >> 20, seen.bytes() >> 20);
+    }
+
+    /**
+     * A Bloom filter of fingerprints with about ten bits and seven probes
+     * per expected entry, which gives about one false positive in a
+     * hundred lookups at that size.
+     */
+    static final class BloomFilter {
+        private static final int PROBES = 7;
+        private final long[] bits;
+        private final long mask;
+
+        BloomFilter(long expected) {
+            long size = Long.highestOneBit(Math.max(64, expected * 10 - 1))
+                << 1;
+            if (size > 1L << 36) {
+                throw new IllegalArgumentException("Too many games: "
+                    + expected);
+            }
+            bits = new long[(int) (size >>> 6)];
+            mask = size - 1;
+        }
+
+        /**
+         * Add a fingerprint.
+         *
+         * @return whether it may have been added before; false means it
+         *     certainly was not
+         */
+        boolean add(long moves, long position) {
+            // Double hashing: probe i is h1 + i * h2.
+            long h1 = Zobrist.mix(moves ^ position);
+            long h2 = Zobrist.mix(h1 ^ moves) | 1;
+            boolean present = true;
+            for (int i = 0; i < PROBES; i++) {
+                long bit = (h1 + i * h2) & mask;
+                int word = (int) (bit >>> 6);
+                long flag = 1L << bit;
+                if ((bits[word] & flag) == 0) {
+                    present = false;
+                    bits[word] |= flag;
+                }
+            }
+            return present;
+        }
+
+        long bytes() {
+            return 8L * bits.length;
+        }
+    }
+
+    /**
+     * An open-addressing hash set of fingerprints, each stored with a long
+     * value, in direct buffers outside the Java heap. It doubles when it
+     * is 70% full.
+     */
+    static final class FingerprintSet {
+        // Moves hash, position hash and value.
+        private static final int ENTRY = 24;
+        private static final int SEGMENT_BITS = 22;
+        private static final int SEGMENT = 1 << SEGMENT_BITS;
+
+        private ByteBuffer[] segments;
+        private long mask;
+        private long size;
+
+        FingerprintSet(long expected) {
+            allocate(Long.highestOneBit(Math.max(16, expected * 2 - 1)) << 1);
+        }
+
+        private void allocate(long slots) {
+            mask = slots - 1;
+            segments = new ByteBuffer[(int) ((slots + SEGMENT - 1)
+                >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = ByteBuffer.allocateDirect(
+                    (int) Math.min(slots, SEGMENT) * ENTRY);
+            }
+        }
+
+        /**
+         * Add a fingerprint known not to be in the set, which only needs
+         * an empty slot rather than comparing the entries before it.
+         */
+        void insert(long moves, long position, long value) {
+            if (moves == 0 && position == 0) {
+                moves = 1;
+            }
+            long slot = Zobrist.mix(moves) & mask;
+            while (true) {
+                ByteBuffer segment = segments[(int) (slot >>> SEGMENT_BITS)];
+                int at = (int) (slot & (SEGMENT - 1)) * ENTRY;
+                if (segment.getLong(at) == 0 && segment.getLong(at + 8) == 0) {
+                    segment.putLong(at, moves).putLong(at + 8, position)
+                        .putLong(at + 16, value);
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (++size > (mask + 1) / 10 * 7) {
+                grow();
+            }
+        }
+
+        /**
+         * Add a fingerprint unless the set holds it already.
+         *
+         * @return the value stored with the fingerprint, or -1 if it was
+         *     added
+         */
+        long putIfAbsent(long moves, long position, long value) {
+            if (moves == 0 && position == 0) {
+                // (0, 0) marks an empty slot.
+                moves = 1;
+            }
+            for (long slot = Zobrist.mix(moves) & mask; ;
+                    slot = (slot + 1) & mask) {
+                ByteBuffer segment = segments[(int) (slot >>> SEGMENT_BITS)];
+                int at = (int) (slot & (SEGMENT - 1)) * ENTRY;
+                long m = segment.getLong(at);
+                long p = segment.getLong(at + 8);
+                if (m == 0 && p == 0) {
+                    segment.putLong(at, moves).putLong(at + 8, position)
+                        .putLong(at + 16, value);
+                    if (++size > (mask + 1) / 10 * 7) {
+                        grow();
+                    }
+                    return -1;
+                } else if (m == moves && p == position) {
+                    return segment.getLong(at + 16);
+                }
+            }
+        }
+
+        private void grow() {
+            ByteBuffer[] old = segments;
+            allocate(2 * (mask + 1));
+            size = 0;
+            for (ByteBuffer segment : old) {
+                for (int at = 0; at < segment.capacity(); at += ENTRY) {
+                    long m = segment.getLong(at);
+                    long p = segment.getLong(at + 8);
+                    if (m != 0 || p != 0) {
+                        insert(m, p, segment.getLong(at + 16));
+                    }
+                }
+            }
+        }
+
+        long bytes() {
+            return (mask + 1) * ENTRY;
+        }
+    }
+
+    /**
+     * Computes fingerprints, with a replayer reused by one worker thread.
+     */
+    static final class Fingerprinter {
+        private final Replayer replayer = new Replayer();
+        private long moves;
+
+        Fingerprinter() {
+            replayer.addListener((ply, move, captured, board) ->
+                moves = Zobrist.mix(moves + move + 1));
+        }
+
+        /**
+         * Store the fingerprint of game in keys[at] and keys[at + 1].
+         *
+         * @return keys
+         * @throws IllegalArgumentException if a move cannot be read or
+         *     played
+         */
+        long[] fingerprint(CharSequence game, long[] keys, int at) {
+            moves = 0;
+            keys[at + 1] = replayer.replay(game).hash();
+            keys[at] = moves;
+            return keys;
+        }
+
+        /**
+         * Fingerprint every game of a batch. The error of a game that
+         * cannot be replayed is kept in place of its fingerprint.
+         */
+        Batch fingerprint(Batch batch) {
+            int count = batch.games.size();
+            batch.keys = new long[2 * count];
+            batch.errors = new String[count];
+            for (int g = 0; g < count; g++) {
+                try {
+                    fingerprint(batch.games.get(g), batch.keys, 2 * g);
+                } catch (IllegalArgumentException e) {
+                    batch.errors[g] = String.valueOf(e.getMessage());
+                }
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Games read together from one file, with where they start and, once
+     * a worker is done, their fingerprints.
+     */
+    static final class Batch {
+        final int file;
+        final List<CharSequence> games = new ArrayList<>(BATCH);
+        final long[] offsets = new long[BATCH];
+        long[] keys;
+        String[] errors;
+
+        Batch(int file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Usage: java DuplicateFinder [-threads n] [-expected games]
+     *     [-unique file] files...
+     *
+     * Fingerprints every game of the PGN files across threads and prints,
+     * in order, a line "file:offset duplicates file:offset" for each game
+     * already seen, and "file:offset error: message" for each game that
+     * cannot be replayed. With -unique the first copy of every game, and
+     * every game that cannot be replayed, is written to the given file.
+     * -expected sizes the filter and set for that many distinct games,
+     * one million by default; the set lives in direct buffers, so large
+     * runs may need a higher -XX:MaxDirectMemorySize. A summary goes to
+     * standard error.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long expected = 1 << 20;
+        Path unique = null;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-expected")) {
+                expected = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-unique")) {
+                unique = Paths.get(args[++i]);
+            } else {
+                files.add(Paths.get(args[i]));
+            }
+        }
+
+        DuplicateFinder finder = new DuplicateFinder(expected);
+        long start = System.nanoTime();
+        try (Writer out = unique == null ? null
+                : Files.newBufferedWriter(unique);
+                Pipeline<Fingerprinter, Batch> pipeline = new Pipeline<>(
+                    threads, 4 * threads, Fingerprinter::new,
+                    batch -> finder.report(batch, files, out))) {
+            for (int f = 0; f < files.size(); f++) {
+                try (MappedPgnFile file = new MappedPgnFile(files.get(f))) {
+                    while (file.hasNext()) {
+                        Batch batch = new Batch(f);
+                        while (batch.games.size() < BATCH
+                            && file.hasNext()) {
+                            CharSequence game = file.next();
+                            batch.offsets[batch.games.size()] =
+                                file.gameOffset();
+                            batch.games.add(game);
+                        }
+                        pipeline.submit(
+                            fingerprinter -> fingerprinter.fingerprint(batch));
+                    }
+                }
+            }
+            pipeline.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.format("%s in %.3f s%n", finder, seconds);
+    }
+
+    /**
+     * Add the games of a fingerprinted batch, printing a line for each
+     * duplicate or error and writing the rest to out if it is not null.
+     *
+     * @throws UncheckedIOException if out cannot be written
+     */
+    private void report(Batch batch, List<Path> files, Writer out) {
+        StringBuilder sb = new StringBuilder();
+        for (int g = 0; g < batch.games.size(); g++) {
+            // Offsets fit in 40 bits and the file number in the rest.
+            long where = (long) batch.file << 40 | batch.offsets[g];
+            String location = files.get(batch.file) + ":" + batch.offsets[g];
+            if (batch.errors[g] != null) {
+                sb.append(location).append(" error: ")
+                    .append(batch.errors[g].replace('\n', ' ')).append('\n');
+            } else {
+                long first = add(batch.keys[2 * g], batch.keys[2 * g + 1],
+                    where);
+                if (first >= 0) {
+                    sb.append(location).append(" duplicates ")
+                        .append(files.get((int) (first >>> 40))).append(':')
+                        .append(first & (1L << 40) - 1).append('\n');
+                    continue;
+                }
+            }
+            if (out != null) {
+                String game = batch.games.get(g).toString();
+                try {
+                    out.write(game);
+                    out.write(game.endsWith("\n\n") ? "" : "\n\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        System.out.print(sb);
+    }
+}
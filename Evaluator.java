@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A static evaluation of `Board` positions: material, piece-square tables
+ * and pawn structure, in centipawns from white's point of view.
+ *
+ * Evaluation walks the piece bitboards and reads flat int tables, with no
+ * allocation and no search, so it can run after a replay or at every ply
+ * through a `PlyListener`.
+ *
+ * @see https://www.chessprogramming.org/Simplified_Evaluation_Function
+ */
+public final class Evaluator {
+
+    /** Values of a pawn, knight, bishop, rook, queen and king. */
+    static final int[] MATERIAL = {100, 320, 330, 500, 900, 0};
+
+    /** The score of a checkmate, beyond any material count. */
+    public static final int MATE = 100000;
+
+    static final int DOUBLED_PAWN = -10;
+    static final int ISOLATED_PAWN = -15;
+    /** Bonus for a passed pawn by the number of ranks it has advanced. */
+    static final int[] PASSED_PAWN = {0, 5, 10, 20, 35, 60, 100, 0};
+
+    /** The number of games a worker scores as one task. */
+    private static final int BATCH = 256;
+    private static final String[] RESULTS = {"*", "1-0", "0-1", "1/2-1/2"};
+    /** Game number, result, final, lowest and highest score. */
+    private static final int FIELDS = 5;
+
+    /**
+     * Material plus piece-square value of each white piece type on each
+     * square, square 0 being a1. Black pieces use the square mirrored
+     * across the middle of the board.
+     */
+    static final int[] TABLES = new int[6 * 64];
+
+    static {
+        int[][] squares = {
+            { // Pawn
+                0, 0, 0, 0, 0, 0, 0, 0,
+                5, 10, 10, -20, -20, 10, 10, 5,
+                5, -5, -10, 0, 0, -10, -5, 5,
+                0, 0, 0, 20, 20, 0, 0, 0,
+                5, 5, 10, 25, 25, 10, 5, 5,
+                10, 10, 20, 30, 30, 20, 10, 10,
+                50, 50, 50, 50, 50, 50, 50, 50,
+                0, 0, 0, 0, 0, 0, 0, 0},
+            { // Knight
+                -50, -40, -30, -30, -30, -30, -40, -50,
+                -40, -20, 0, 5, 5, 0, -20, -40,
+                -30, 5, 10, 15, 15, 10, 5, -30,
+                -30, 0, 15, 20, 20, 15, 0, -30,
+                -30, 5, 15, 20, 20, 15, 5, -30,
+                -30, 0, 10, 15, 15, 10, 0, -30,
+                -40, -20, 0, 0, 0, 0, -20, -40,
+                -50, -40, -30, -30, -30, -30, -40, -50},
+            { // Bishop
+                -20, -10, -10, -10, -10, -10, -10, -20,
+                -10, 5, 0, 0, 0, 0, 5, -10,
+                -10, 10, 10, 10, 10, 10, 10, -10,
+                -10, 0, 10, 10, 10, 10, 0, -10,
+                -10, 5, 5, 10, 10, 5, 5, -10,
+                -10, 0, 5, 10, 10, 5, 0, -10,
+                -10, 0, 0, 0, 0, 0, 0, -10,
+                -20, -10, -10, -10, -10, -10, -10, -20},
+            { // Rook
+                0, 0, 0, 5, 5, 0, 0, 0,
+                -5, 0, 0, 0, 0, 0, 0, -5,
+                -5, 0, 0, 0, 0, 0, 0, -5,
+                -5, 0, 0, 0, 0, 0, 0, -5,
+                -5, 0, 0, 0, 0, 0, 0, -5,
+                -5, 0, 0, 0, 0, 0, 0, -5,
+                5, 10, 10, 10, 10, 10, 10, 5,
+                0, 0, 0, 0, 0, 0, 0, 0},
+            { // Queen
+                -20, -10, -10, -5, -5, -10, -10, -20,
+                -10, 0, 5, 0, 0, 0, 0, -10,
+                -10, 5, 5, 5, 5, 5, 0, -10,
+                0, 0, 5, 5, 5, 5, 0, -5,
+                -5, 0, 5, 5, 5, 5, 0, -5,
+                -10, 0, 5, 5, 5, 5, 0, -10,
+                -10, 0, 0, 0, 0, 0, 0, -10,
+                -20, -10, -10, -5, -5, -10, -10, -20},
+            { // King
+                20, 30, 10, 0, 0, 10, 30, 20,
+                20, 20, 0, 0, 0, 0, 20, 20,
+                -10, -20, -20, -20, -20, -20, -20, -10,
+                -20, -30, -30, -40, -40, -30, -30, -20,
+                -30, -40, -40, -50, -50, -40, -40, -30,
+                -30, -40, -40, -50, -50, -40, -40, -30,
+                -30, -40, -40, -50, -50, -40, -40, -30,
+                -30, -40, -40, -50, -50, -40, -40, -30},
+        };
+        for (int type = 0; type < 6; type++) {
+            for (int square = 0; square < 64; square++) {
+                TABLES[type * 64 + square] =
+                    MATERIAL[type] + squares[type][square];
+            }
+        }
+    }
+
+    /**
+     * The squares ahead of a pawn of each color on each square, on its
+     * file and the files next to it, that enemy pawns must not hold for
+     * it to be passed.
+     */
+    static final long[][] PASSED = new long[2][64];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            int file = Board.fileOf(square);
+            int rank = Board.rankOf(square);
+            for (int f = Math.max(0, file - 1); f <= Math.min(7, file + 1);
+                    f++) {
+                for (int r = rank + 1; r < 8; r++) {
+                    PASSED[Board.WHITE][square] |= 1L << Board.square(f, r);
+                }
+                for (int r = rank - 1; r >= 0; r--) {
+                    PASSED[Board.BLACK][square] |= 1L << Board.square(f, r);
+                }
+            }
+        }
+    }
+
+    private Evaluator() {
+    }
+
+    /**
+     * @param board a position
+     * @return the position's score in centipawns, positive when white is
+     *     better
+     */
+    public static int evaluate(Board board) {
+        int score = 0;
+        for (int type = Board.PAWN; type <= Board.KING; type++) {
+            int base = type * 64;
+            long white = board.pieces[Board.piece(Board.WHITE, type)];
+            while (white != 0) {
+                score += TABLES[base + Long.numberOfTrailingZeros(white)];
+                white &= white - 1;
+            }
+            long black = board.pieces[Board.piece(Board.BLACK, type)];
+            while (black != 0) {
+                score -=
+                    TABLES[base + (Long.numberOfTrailingZeros(black) ^ 56)];
+                black &= black - 1;
+            }
+        }
+        return score + pawnStructure(board, Board.WHITE)
+            - pawnStructure(board, Board.BLACK);
+    }
+
+    /**
+     * @return the score of the side to move, positive when it is better
+     */
+    public static int evaluateForSideToMove(Board board) {
+        int score = evaluate(board);
+        return board.sideToMove() == Board.WHITE ? score : -score;
+    }
+
+    /**
+     * Like evaluate, but scores checkmate as MATE for the winner and
+     * stalemate as 0, which a game's final position often is.
+     *
+     * @param legal a scratch array of MoveGenerator.MAX_MOVES ints
+     */
+    public static int evaluateFinal(Board board, int[] legal) {
+        if (MoveGenerator.generate(board, legal) > 0) {
+            return evaluate(board);
+        } else if (!MoveGenerator.inCheck(board)) {
+            return 0;
+        }
+        return board.sideToMove() == Board.WHITE ? -MATE : MATE;
+    }
+
+    /**
+     * Penalties for doubled and isolated pawns and bonuses for passed
+     * pawns of color, from that color's point of view.
+     */
+    static int pawnStructure(Board board, int color) {
+        long pawns = board.pieces[Board.piece(color, Board.PAWN)];
+        long enemy = board.pieces[Board.piece(color ^ 1, Board.PAWN)];
+        int score = 0;
+        for (int file = 0; file < 8; file++) {
+            long mask = Attacks.FILE_A << file;
+            int count = Long.bitCount(pawns & mask);
+            if (count == 0) {
+                continue;
+            }
+            score += DOUBLED_PAWN * (count - 1);
+            long neighbours = (file > 0 ? mask >>> 1 : 0)
+                | (file < 7 ? mask << 1 : 0);
+            if ((pawns & neighbours) == 0) {
+                score += ISOLATED_PAWN * count;
+            }
+        }
+        long remaining = pawns;
+        while (remaining != 0) {
+            int square = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if ((enemy & PASSED[color][square]) == 0) {
+                int rank = Board.rankOf(square);
+                score += PASSED_PAWN[color == Board.WHITE ? rank : 7 - rank];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Usage: java Evaluator [-threads n] [-plies] files...
+     *
+     * Replays every game of the PGN files across threads and prints, in
+     * order, each game's number, result tag and final score. With -plies
+     * every position of every game is evaluated as well, and the lowest
+     * and highest score the game reached are printed after the final
+     * one. A summary of positions evaluated per second goes to standard
+     * error.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean everyPly = false;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-plies")) {
+                everyPly = true;
+            } else {
+                files.add(args[i]);
+            }
+        }
+
+        boolean plies = everyPly;
+        long[] positions = new long[1];
+        long start = System.nanoTime();
+        long games = 0;
+        try (Pipeline<Scorer, long[]> pipeline = new Pipeline<>(threads,
+                4 * threads, () -> new Scorer(plies),
+                scored -> positions[0] += print(scored, plies))) {
+            for (String name : files) {
+                try (MappedPgnFile file =
+                        new MappedPgnFile(Paths.get(name))) {
+                    while (file.hasNext()) {
+                        List<CharSequence> batch = new ArrayList<>();
+                        while (batch.size() < BATCH && file.hasNext()) {
+                            batch.add(file.next());
+                        }
+                        long first = games;
+                        games += batch.size();
+                        pipeline.submit(scorer -> scorer.score(first, batch));
+                    }
+                }
+            }
+            pipeline.finish();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.format("%d games, %d positions in %.3f s, %.0f"
+            + " positions/s%n", games, positions[0], seconds,
+            positions[0] / seconds);
+    }
+
+    /**
+     * Print the lines of one scored batch.
+     *
+     * @return the number of positions the batch evaluated
+     */
+    private static long print(long[] scored, boolean everyPly) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < scored.length; i += FIELDS) {
+            sb.append(scored[i] + 1).append(' ')
+                .append(RESULTS[(int) scored[i + 1]]).append(' ');
+            if (scored[i + 2] == Long.MIN_VALUE) {
+                sb.append("error");
+            } else {
+                sb.append(scored[i + 2]);
+                if (everyPly) {
+                    sb.append(' ').append(scored[i + 3])
+                        .append(' ').append(scored[i + 4]);
+                }
+            }
+            sb.append('\n');
+        }
+        System.out.print(sb);
+        return scored[0];
+    }
+
+    /**
+     * Replays and scores the games of a batch, with buffers reused by
+     * one worker thread.
+     */
+    private static final class Scorer {
+        private final Replayer replayer = new Replayer();
+        private final TagSection tags = new TagSection();
+        private final int[] legal = new int[MoveGenerator.MAX_MOVES];
+        private long positions;
+        private int lowest;
+        private int highest;
+
+        Scorer(boolean everyPly) {
+            if (everyPly) {
+                replayer.addListener((ply, move, captured, board) -> {
+                    int score = evaluate(board);
+                    lowest = Math.min(lowest, score);
+                    highest = Math.max(highest, score);
+                    positions++;
+                });
+            }
+        }
+
+        /**
+         * @return the number of positions evaluated, then FIELDS values
+         *     for each game; the final score is Long.MIN_VALUE for a game
+         *     that could not be replayed
+         */
+        long[] score(long first, List<CharSequence> batch) {
+            long[] scored = new long[1 + FIELDS * batch.size()];
+            positions = 0;
+            for (int g = 0; g < batch.size(); g++) {
+                CharSequence game = batch.get(g);
+                tags.parse(game);
+                String result = tags.get("Result");
+                int base = 1 + FIELDS * g;
+                scored[base] = first + g;
+                for (int r = 1; r < RESULTS.length; r++) {
+                    if (RESULTS[r].equals(result)) {
+                        scored[base + 1] = r;
+                    }
+                }
+                lowest = Integer.MAX_VALUE;
+                highest = Integer.MIN_VALUE;
+                try {
+                    int score = evaluateFinal(replayer.replay(game), legal);
+                    scored[base + 2] = score;
+                    positions++;
+                    if (lowest > highest) {
+                        // No ply was played, so the game only reached
+                        // its final position.
+                        lowest = score;
+                        highest = score;
+                    }
+                } catch (IllegalArgumentException e) {
+                    scored[base + 2] = Long.MIN_VALUE;
+                }
+                scored[base + 3] = lowest;
+                scored[base + 4] = highest;
+            }
+            scored[0] = positions;
+            return scored;
+        }
+    }
+}
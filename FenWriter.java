@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes `Board` positions in Forsyth-Edwards Notation (FEN) into a
+ * reusable `char[]`, without regular expressions or intermediate
+ * Strings, so a FEN can be produced after every ply of a large replay.
+ *
+ * @see http://www.saremba.de/chessgml/standards/pgn/pgn-complete.htm#c16.1
+ */
+public final class FenWriter {
+
+    /** More than the longest FEN of any legal position. */
+    public static final int MAX_LENGTH = 128;
+
+    private static final char[] CASTLING = {'K', 'Q', 'k', 'q'};
+
+    private final char[] chars = new char[MAX_LENGTH];
+    private int length;
+
+    /**
+     * Write the full six-field FEN of board into this writer's buffer,
+     * replacing what it held.
+     *
+     * @param board the position to write
+     * @return this FenWriter
+     */
+    public FenWriter write(Board board) {
+        length = write(board, chars, 0);
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the buffer holding the last FEN written in its first
+     *     length() chars
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    public void appendTo(StringBuilder sb) {
+        sb.append(chars, 0, length);
+    }
+
+    /**
+     * Copy the last FEN written into out as ASCII bytes.
+     */
+    public void appendTo(ByteBuffer out) {
+        for (int i = 0; i < length; i++) {
+            out.put((byte) chars[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * @param board a position
+     * @return the piece placement field of board's FEN
+     */
+    public static String placement(Board board) {
+        char[] out = new char[MAX_LENGTH];
+        return new String(out, 0, placement(board, out, 0));
+    }
+
+    /**
+     * Write the piece placement field of board's FEN into out.
+     *
+     * @return the index in out just past what was written
+     */
+    public static int placement(Board board, char[] out, int offset) {
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = board.pieceAt(Board.square(file, rank));
+                if (piece == Board.EMPTY) {
+                    empty++;
+                } else {
+                    if (empty > 0) {
+                        out[offset++] = (char) ('0' + empty);
+                        empty = 0;
+                    }
+                    out[offset++] = Board.letterOf(piece);
+                }
+            }
+            if (empty > 0) {
+                out[offset++] = (char) ('0' + empty);
+            }
+            if (rank > 0) {
+                out[offset++] = '/';
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Write all six fields of board's FEN into out.
+     *
+     * @return the index in out just past what was written
+     */
+    public static int write(Board board, char[] out, int offset) {
+        offset = placement(board, out, offset);
+        out[offset++] = ' ';
+        out[offset++] = board.sideToMove() == Board.WHITE ? 'w' : 'b';
+        out[offset++] = ' ';
+        int castling = board.castling();
+        if (castling == 0) {
+            out[offset++] = '-';
+        }
+        for (int i = 0; i < 4; i++) {
+            if ((castling & (1 << i)) != 0) {
+                out[offset++] = CASTLING[i];
+            }
+        }
+        out[offset++] = ' ';
+        int enPassant = board.enPassant();
+        if (enPassant < 0) {
+            out[offset++] = '-';
+        } else {
+            out[offset++] = (char) ('a' + Board.fileOf(enPassant));
+            out[offset++] = (char) ('1' + Board.rankOf(enPassant));
+        }
+        out[offset++] = ' ';
+        offset = writeNumber(board.halfmoveClock(), out, offset);
+        out[offset++] = ' ';
+        return writeNumber(board.fullmoveNumber(), out, offset);
+    }
+
+    /**
+     * Write the decimal digits of a non-negative value into out.
+     *
+     * @return the index in out just past what was written
+     */
+    static int writeNumber(long value, char[] out, int offset) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+
+    /**
+     * Replay game and write one line per ply to out: the game number, the
+     * ply number and the FEN after that ply, separated by tabs. out is
+     * drained to channel whenever it fills up, and before the game if it
+     * is more than half full, so a game usually fits without a drain.
+     *
+     * @param game the PGN text of a chess game
+     * @param gameNumber the number to write for the game
+     * @param out a buffer of at least a few hundred bytes
+     * @param channel where full buffers are written
+     * @throws IllegalArgumentException if a move cannot be read or played;
+     *     the game's lines are taken back out of out unless it had to be
+     *     drained during the game
+     */
+    public void writePlies(CharSequence game, long gameNumber,
+            ByteBuffer out, WritableByteChannel channel) throws IOException {
+        if (out.remaining() < out.capacity() / 2) {
+            drain(out, channel);
+        }
+        // Where the game's lines start, or -1 once some have been drained.
+        int start = out.position();
+        Board board = new Board();
+        SanMove move = new SanMove();
+        Movetext movetext = new Movetext(game,
+            TagSection.of(game).movetextStart());
+        char[] number = new char[20];
+        int ply = 0;
+        try {
+            while (movetext.next()) {
+                PgnReader.playMove(board, move, game, movetext);
+                ply++;
+                write(board);
+                if (out.remaining() < MAX_LENGTH + 2 * number.length) {
+                    drain(out, channel);
+                    start = -1;
+                }
+                int digits = writeNumber(gameNumber, number, 0);
+                for (int i = 0; i < digits; i++) {
+                    out.put((byte) number[i]);
+                }
+                out.put((byte) '\t');
+                digits = writeNumber(ply, number, 0);
+                for (int i = 0; i < digits; i++) {
+                    out.put((byte) number[i]);
+                }
+                out.put((byte) '\t');
+                appendTo(out);
+                out.put((byte) '\n');
+            }
+        } catch (IllegalArgumentException e) {
+            if (start >= 0) {
+                out.position(start);
+            }
+            throw e;
+        }
+    }
+
+    static void drain(ByteBuffer out, WritableByteChannel channel)
+            throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Usage: java FenWriter file [out]
+     *
+     * Writes the FEN after every ply of every game in the PGN file to out,
+     * or to standard output, one "game ply FEN" line per ply. A game that
+     * cannot be replayed is reported on standard error and skipped, but
+     * keeps its game number.
+     */
+    public static void main(String[] args) throws IOException {
+        WritableByteChannel channel = args.length > 1
+            ? FileChannel.open(Paths.get(args[1]), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+            : Channels.newChannel(System.out);
+        ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+        FenWriter fen = new FenWriter();
+        long games = 0;
+        try (MappedPgnFile file = new MappedPgnFile(Paths.get(args[0]));
+                WritableByteChannel target = channel) {
+            while (file.hasNext()) {
+                CharSequence game = file.next();
+                try {
+                    fen.writePlies(game, ++games, out, target);
+                } catch (IllegalArgumentException e) {
+                    System.err.format("%s:%d: game %d: %s%n", args[0],
+                        file.gameOffset(), games, e.getMessage());
+                }
+            }
+            drain(out, target);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Converts PGN games to a compact binary form and replays that form
+ * straight into a `Board`, with no text to parse and no moves to find.
+ *
+ * Each move is stored as the two bytes of its `Move` code, big-endian:
+ * origin and destination squares and promotion, all resolved when the
+ * game was encoded, so a replay only calls `Board.executeMove`. A game is
+ * its ply count as a varint followed by two bytes per ply, after a file
+ * header of MAGIC and VERSION. The tag section of every game goes in a
+ * side table next to the moves file, with the same name plus ".tags", as
+ * a varint length and the UTF-8 bytes of the tags, so a replay that needs
+ * only the moves never reads it.
+ */
+public final class GameCodec {
+
+    private static final int MAGIC = 0x50474E42;
+    private static final int TAGS_MAGIC = 0x50474E48;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+
+    private final Board board = new Board();
+    private final SanMove move = new SanMove();
+    private final Movetext movetext = new Movetext();
+    private byte[] plies = new byte[2048];
+
+    /**
+     * Encode the moves of game.
+     *
+     * @param game the PGN text of a chess game
+     * @param out receives the encoded game
+     * @return the number of plies encoded
+     * @throws IllegalArgumentException if a move cannot be read or played,
+     *     in which case nothing is written
+     */
+    public int encode(CharSequence game, OutputStream out)
+            throws IOException {
+        board.reset();
+        movetext.reset(game, TagSection.of(game).movetextStart());
+        int count = 0;
+        while (movetext.next()) {
+            int played = PgnReader.playMove(board, move, game, movetext);
+            if (2 * count == plies.length) {
+                plies = Arrays.copyOf(plies, 2 * plies.length);
+            }
+            plies[2 * count] = (byte) (played >>> 8);
+            plies[2 * count + 1] = (byte) played;
+            count++;
+        }
+        writeVarint(out, count);
+        out.write(plies, 0, 2 * count);
+        return count;
+    }
+
+    /**
+     * Replay the encoded game at in's position into board, leaving in just
+     * past it.
+     *
+     * @param in holds encoded games
+     * @param board receives the game's final position
+     * @return the number of plies played
+     * @throws IllegalStateException if a move does not start from a piece
+     *     of the side to move
+     */
+    public static int replay(ByteBuffer in, Board board) {
+        board.reset();
+        int plies = readVarint(in);
+        for (int ply = 0; ply < plies; ply++) {
+            int played = in.getShort() & 0xFFFF;
+            int piece = board.pieceAt(Move.from(played));
+            if (piece == Board.EMPTY
+                || Board.colorOf(piece) != board.sideToMove()) {
+                throw new IllegalStateException("Corrupt game: move "
+                    + Move.toString(played) + " at ply " + (ply + 1));
+            }
+            board.executeMove(Move.from(played), Move.to(played),
+                Move.promotion(played));
+        }
+        return plies;
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    static Path tagsPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tags");
+    }
+
+    /**
+     * Encode every game of the PGN file pgn into out and its side table.
+     * A game that cannot be replayed is reported on standard error and
+     * left out.
+     *
+     * @return the number of games encoded
+     */
+    public static long convert(Path pgn, Path out) throws IOException {
+        GameCodec codec = new GameCodec();
+        long games = 0;
+        try (MappedPgnFile file = new MappedPgnFile(pgn);
+                DataOutputStream moves = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(out),
+                    1 << 16));
+                DataOutputStream tags = new DataOutputStream(
+                    new BufferedOutputStream(
+                    Files.newOutputStream(tagsPath(out)), 1 << 16))) {
+            moves.writeInt(MAGIC);
+            moves.writeInt(VERSION);
+            tags.writeInt(TAGS_MAGIC);
+            tags.writeInt(VERSION);
+            while (file.hasNext()) {
+                CharSequence game = file.next();
+                try {
+                    codec.encode(game, moves);
+                } catch (IllegalArgumentException e) {
+                    // encode writes nothing until the whole game has played.
+                    System.err.format("%s:%d: %s%n", pgn, file.gameOffset(),
+                        e.getMessage());
+                    continue;
+                }
+                byte[] text = game.subSequence(0,
+                    TagSection.of(game).movetextStart()).toString().trim()
+                    .getBytes(StandardCharsets.UTF_8);
+                writeVarint(tags, text.length);
+                tags.write(text);
+                games++;
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Replays the games of an encoded file one at a time. The file is
+     * mapped one window at a time, like `MappedPgnFile`, so files of any
+     * size can be read.
+     */
+    public static final class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final long size;
+        private final DataInputStream tags;
+        private MappedByteBuffer buffer;
+        private long bufferStart;
+        private String lastTags;
+        private int plies;
+
+        public Reader(Path path) throws IOException {
+            this(path, false);
+        }
+
+        /**
+         * @param path an encoded file written by convert
+         * @param withTags whether to read the tags side table along with
+         *     the moves
+         */
+        public Reader(Path path, boolean withTags) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+            map(0L);
+            if (size < HEADER || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION) {
+                channel.close();
+                throw new IOException(path + " is not an encoded game file");
+            }
+            if (withTags) {
+                tags = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(tagsPath(path)), 1 << 16));
+                if (tags.readInt() != TAGS_MAGIC
+                    || tags.readInt() != VERSION) {
+                    close();
+                    throw new IOException(tagsPath(path)
+                        + " is not an encoded tag table");
+                }
+            } else {
+                tags = null;
+            }
+        }
+
+        private void map(long start) throws IOException {
+            bufferStart = start;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(MappedPgnFile.WINDOW, size - start));
+        }
+
+        /**
+         * Replay the next game into board.
+         *
+         * @return whether there was another game
+         */
+        public boolean next(Board board) throws IOException {
+            long position = bufferStart + buffer.position();
+            if (position >= size) {
+                return false;
+            }
+            // A game takes at most 5 bytes of ply count and two bytes a
+            // ply, and no game is near a window long.
+            if (buffer.remaining() < 1 << 16
+                && bufferStart + buffer.limit() < size) {
+                map(position);
+            }
+            plies = replay(buffer, board);
+            if (tags != null) {
+                byte[] text = new byte[readVarint(tags)];
+                tags.readFully(text);
+                lastTags = new String(text, StandardCharsets.UTF_8);
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of plies of the game last replayed
+         */
+        public int plies() {
+            return plies;
+        }
+
+        /**
+         * @return the tag section of the game last replayed, or null if
+         *     the tags are not being read
+         */
+        public String tags() {
+            return lastTags;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (tags != null) {
+                tags.close();
+            }
+        }
+    }
+
+    /**
+     * Usage: java GameCodec encode file.pgn out.bin
+     *        java GameCodec decode file.bin
+     *        java GameCodec replay file.bin
+     *
+     * encode writes the games of a PGN file to out.bin and their tags to
+     * out.bin.tags. decode prints the final position of every encoded game
+     * along with its tags, and replay times a replay of every game.
+     */
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        if (args[0].equals("encode")) {
+            long games = convert(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.format("%d games, %d bytes%n", games,
+                Files.size(Paths.get(args[2])));
+            return;
+        }
+        boolean decode = args[0].equals("decode");
+        Board board = new Board();
+        FenWriter fen = new FenWriter();
+        long games = 0;
+        long plies = 0;
+        try (Reader reader = new Reader(Paths.get(args[1]), decode)) {
+            while (reader.next(board)) {
+                games++;
+                plies += reader.plies();
+                if (decode) {
+                    System.out.println(reader.tags());
+                    System.out.println(fen.write(board));
+                    System.out.println();
+                }
+            }
+        } catch (EOFException e) {
+            System.err.println("Tag table ends early: " + e);
+            System.exit(1);
+        }
+        if (!decode) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.format("%d games, %d plies in %.3f s, %.0f games/s%n",
+                games, plies, seconds, games / seconds);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * The rules that split PGN text into games, applied one line at a time,
+ * so that `PgnStream` and `MappedPgnFile` find the same boundaries.
+ *
+ * A game ends at its game termination marker, or failing that at the
+ * first tag pair that follows movetext, or at the end of the input. A tag
+ * after a blank line starts a new game even inside a comment, so an
+ * unclosed comment loses only its own game.
+ *
+ * @see http://www.saremba.de/chessgml/standards/pgn/pgn-complete.htm#c8.2
+ */
+final class GameSplitter {
+
+    /** A tag pair line of the current game. */
+    static final int TAG = 0;
+    /** A blank or escape line, which belongs to no section. */
+    static final int SKIP = 1;
+    /** A movetext line that does not end the game. */
+    static final int MOVETEXT = 2;
+    /** A movetext line holding the game termination marker. */
+    static final int END = 3;
+    /** A tag pair line that starts the next game. */
+    static final int NEXT = 4;
+
+    private boolean inMovetext;
+    private boolean inComment;
+    private boolean afterBlank;
+
+    /**
+     * Start looking for the end of a new game.
+     */
+    void reset() {
+        inMovetext = false;
+        inComment = false;
+        afterBlank = false;
+    }
+
+    /**
+     * Classify the next line of the game.
+     *
+     * @param text holds the line
+     * @param start the index of the line's first character
+     * @param end the index just past the line, without its line break
+     * @return TAG, SKIP, MOVETEXT, END or NEXT
+     */
+    int line(CharSequence text, int start, int end) {
+        int first = start;
+        while (first < end && isSpace(text.charAt(first))) {
+            first++;
+        }
+        boolean blank = afterBlank;
+        afterBlank = first == end;
+        char c = first < end ? text.charAt(first) : '\n';
+        if (c == '[' && (!inComment || blank)) {
+            return inMovetext ? NEXT : TAG;
+        } else if (c == '\n' || c == '%') {
+            return SKIP;
+        }
+        inMovetext = true;
+        int i = first;
+        while (i < end) {
+            char b = text.charAt(i);
+            if (inComment) {
+                inComment = b != '}';
+                i++;
+            } else if (b == '{') {
+                inComment = true;
+                i++;
+            } else if (b == ';') {
+                break;
+            } else if (isSpace(b)) {
+                i++;
+            } else {
+                int tokenStart = i;
+                while (i < end && !isSpace(text.charAt(i))
+                    && text.charAt(i) != '{' && text.charAt(i) != ';') {
+                    i++;
+                }
+                if (isResult(text, tokenStart, i)) {
+                    return END;
+                }
+            }
+        }
+        return MOVETEXT;
+    }
+
+    /**
+     * @return whether text[start, end) is one of the four PGN game
+     * termination markers
+     */
+    static boolean isResult(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            return text.charAt(start) == '*';
+        } else if (length == 3) {
+            char first = text.charAt(start);
+            char last = text.charAt(start + 2);
+            return text.charAt(start + 1) == '-'
+                && ((first == '1' && last == '0')
+                || (first == '0' && last == '1'));
+        } else if (length == 7) {
+            for (int i = 0; i < 7; i++) {
+                if (text.charAt(start + i) != "1/2-1/2".charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the games of a PGN file through a memory mapping, without
+ * decoding or copying the file.
+ *
+ * The file is mapped one large window at a time, so files of any size can
+ * be read. Each game is handed out as a `ByteText` view of the mapped
+ * bytes, which `TagSection`, `Movetext` and `SanMove` parse directly;
+ * Strings are only built when a caller asks for one. Game boundaries are
+ * found by `GameSplitter`, as in `PgnStream`.
+ */
+public class MappedPgnFile implements Iterator<CharSequence>, Closeable {
+
+    static final int WINDOW = 1 << 28;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+    private int windowSize = WINDOW;
+    private long position;
+    private ByteText nextGame;
+    private long nextOffset;
+    private long gameOffset = -1;
+    private final GameSplitter splitter = new GameSplitter();
+
+    public MappedPgnFile(Path path) throws IOException {
+        this(path, 0L);
+    }
+
+    /**
+     * @param path the PGN file to read
+     * @param offset the byte offset in the file to start reading from,
+     *     which should be the start of a game
+     */
+    public MappedPgnFile(Path path, long offset) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        position = offset;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextGame == null && position < size) {
+            try {
+                findGame();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return nextGame != null;
+    }
+
+    @Override
+    public CharSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ByteText game = nextGame;
+        gameOffset = nextOffset;
+        nextGame = null;
+        return game;
+    }
+
+    /**
+     * @return the byte offset in the file of the game last returned by
+     *     next(), or -1 before the first game
+     */
+    public long gameOffset() {
+        return gameOffset;
+    }
+
+    /**
+     * @return the byte offset in the file just past the last game
+     *     returned by next()
+     */
+    public long position() {
+        return nextGame == null ? position : nextOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+
+    private void map(long start) throws IOException {
+        long length = Math.min((long) windowSize, size - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        bufferStart = start;
+    }
+
+    private void findGame() throws IOException {
+        while (true) {
+            if (buffer == null || position < bufferStart
+                || position >= bufferStart + buffer.limit()) {
+                map(position);
+            }
+            int limit = buffer.limit();
+            boolean atEnd = bufferStart + limit == size;
+            int start = (int) (position - bufferStart);
+            while (start < limit && isSpace(buffer.get(start))) {
+                start++;
+            }
+            if (start == limit && atEnd) {
+                position = size;
+                return;
+            }
+            int end = scanGame(start, limit, atEnd);
+            if (end >= 0) {
+                nextGame = new ByteText(buffer, start, end - start);
+                nextOffset = bufferStart + start;
+                position = bufferStart + end;
+                return;
+            }
+            // The game runs past the window; map again from its start,
+            // with a larger window if it started the current one.
+            if (start == 0) {
+                windowSize = (int) Math.min(Integer.MAX_VALUE,
+                    2L * windowSize);
+            }
+            position = bufferStart + start;
+            map(position);
+        }
+    }
+
+    /**
+     * Find the end of the game starting at start, or -1 if it does not
+     * end before limit and there is more of the file to read.
+     */
+    private int scanGame(int start, int limit, boolean atEnd) {
+        ByteText text = new ByteText(buffer, 0, limit);
+        splitter.reset();
+        int p = start;
+        while (p < limit) {
+            int lineEnd = p;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == limit && !atEnd) {
+                return -1;
+            }
+            switch (splitter.line(text, p, lineEnd)) {
+            case GameSplitter.NEXT:
+                return p;
+            case GameSplitter.END:
+                return Math.min(lineEnd + 1, limit);
+            default:
+                p = lineEnd + 1;
+                break;
+            }
+        }
+        return atEnd ? limit : -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return GameSplitter.isSpace((char) b);
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Moves packed into an `int`: the origin square in bits 0-5, the
+ * destination square in bits 6-11 and the promotion piece type plus one
+ * in bits 12-14, so that a move needs no object and two moves are equal
+ * exactly when their ints are. Castling is the king's two-square move.
+ */
+public final class Move {
+
+    private Move() {
+    }
+
+    /**
+     * @param from the origin square
+     * @param to the destination square
+     * @param promotion the piece type promoted to, or `Board.EMPTY`
+     * @return the packed move
+     */
+    public static int of(int from, int to, int promotion) {
+        return from | to << 6 | (promotion + 1) << 12;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    /**
+     * @return the piece type promoted to, or `Board.EMPTY`
+     */
+    public static int promotion(int move) {
+        return (move >>> 12) - 1;
+    }
+
+    /**
+     * @return move in the UCI form used by engines, such as "e7e8q"
+     */
+    public static String toString(int move) {
+        String s = Board.squareName(from(move)) + Board.squareName(to(move));
+        if (promotion(move) != Board.EMPTY) {
+            s += Character.toLowerCase(Board.letterOf(promotion(move)));
+        }
+        return s;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Generates the legal moves of a `Board` position, packed as by
+ * `Move.of`, including castling, en passant and all four promotions.
+ *
+ * Moves are generated from the attack tables and then checked for
+ * legality. Only moves that could expose the king are tested: king moves,
+ * en passant captures, moves of pinned pieces and every move while in
+ * check. The generator keeps no state, so one instance can be shared.
+ */
+public final class MoveGenerator {
+
+    /** More than the number of legal moves in any position. */
+    public static final int MAX_MOVES = 256;
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * Write the legal moves of board into moves.
+     *
+     * @param board the position to generate moves for
+     * @param moves receives the moves, and must hold MAX_MOVES
+     * @return the number of moves written
+     */
+    public static int generate(Board board, int[] moves) {
+        int us = board.sideToMove;
+        int them = us ^ 1;
+        long own = board.colors[us];
+        long enemy = board.colors[them];
+        long occupied = board.occupied;
+        int king = Long.numberOfTrailingZeros(
+            board.pieces[Board.piece(us, Board.KING)]);
+        boolean inCheck = board.attackersOf(king, them, occupied) != 0;
+        long pinned = pinned(board, us, king);
+        int count = 0;
+
+        long pawns = board.pieces[Board.piece(us, Board.PAWN)];
+        int forward = us == Board.WHITE ? 8 : -8;
+        int startRank = us == Board.WHITE ? 1 : 6;
+        int lastRank = us == Board.WHITE ? 7 : 0;
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            boolean test = inCheck || (pinned & 1L << from) != 0;
+            int to = from + forward;
+            if ((occupied & 1L << to) == 0) {
+                count = addPawn(board, moves, count, from, to, lastRank,
+                    test);
+                int twoSteps = to + forward;
+                if (Board.rankOf(from) == startRank
+                    && (occupied & 1L << twoSteps) == 0) {
+                    count = add(board, moves, count, from, twoSteps, test);
+                }
+            }
+            long captures = Attacks.pawn(us, from) & enemy;
+            while (captures != 0) {
+                to = Long.numberOfTrailingZeros(captures);
+                captures &= captures - 1;
+                count = addPawn(board, moves, count, from, to, lastRank,
+                    test);
+            }
+            int enPassant = board.enPassant;
+            if (enPassant >= 0
+                && (Attacks.pawn(us, from) & 1L << enPassant) != 0) {
+                count = add(board, moves, count, from, enPassant, true);
+            }
+        }
+
+        for (int type = Board.KNIGHT; type <= Board.KING; type++) {
+            long pieces = board.pieces[Board.piece(us, type)];
+            while (pieces != 0) {
+                int from = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                boolean test = inCheck || type == Board.KING
+                    || (pinned & 1L << from) != 0;
+                long targets = board.attacks(Board.piece(us, type), from,
+                    occupied) & ~own;
+                while (targets != 0) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+                    count = add(board, moves, count, from, to, test);
+                }
+            }
+        }
+
+        if (!inCheck) {
+            count = addCastling(board, moves, count, us, king);
+        }
+        return count;
+    }
+
+    private static int add(Board board, int[] moves, int count, int from,
+            int to, boolean test) {
+        if (!test || !board.leavesKingInCheck(from, to)) {
+            moves[count++] = Move.of(from, to, Board.EMPTY);
+        }
+        return count;
+    }
+
+    private static int addPawn(Board board, int[] moves, int count,
+            int from, int to, int lastRank, boolean test) {
+        if (Board.rankOf(to) != lastRank) {
+            return add(board, moves, count, from, to, test);
+        }
+        if (!test || !board.leavesKingInCheck(from, to)) {
+            for (int type = Board.QUEEN; type >= Board.KNIGHT; type--) {
+                moves[count++] = Move.of(from, to, type);
+            }
+        }
+        return count;
+    }
+
+    private static int addCastling(Board board, int[] moves, int count,
+            int us, int king) {
+        int kingside = us == Board.WHITE
+            ? Board.WHITE_KINGSIDE : Board.BLACK_KINGSIDE;
+        int queenside = us == Board.WHITE
+            ? Board.WHITE_QUEENSIDE : Board.BLACK_QUEENSIDE;
+        int them = us ^ 1;
+        long occupied = board.occupied;
+        if ((board.castling & kingside) != 0
+            && (occupied & (3L << (king + 1))) == 0
+            && board.attackersOf(king + 1, them, occupied) == 0
+            && board.attackersOf(king + 2, them, occupied) == 0) {
+            moves[count++] = Move.of(king, king + 2, Board.EMPTY);
+        }
+        if ((board.castling & queenside) != 0
+            && (occupied & (7L << (king - 3))) == 0
+            && board.attackersOf(king - 1, them, occupied) == 0
+            && board.attackersOf(king - 2, them, occupied) == 0) {
+            moves[count++] = Move.of(king, king - 2, Board.EMPTY);
+        }
+        return count;
+    }
+
+    /**
+     * Pieces of color us that stand between their king and an enemy
+     * slider, and so may only move along that line.
+     */
+    static long pinned(Board board, int us, int king) {
+        int base = (us ^ 1) * 6;
+        long queens = board.pieces[base + Board.QUEEN];
+        long diagonal = board.pieces[base + Board.BISHOP] | queens;
+        long straight = board.pieces[base + Board.ROOK] | queens;
+        long occupied = board.occupied;
+        long seen = (Attacks.bishop(king, occupied) & diagonal)
+            | (Attacks.rook(king, occupied) & straight);
+        long shields = Attacks.queen(king, occupied) & board.colors[us];
+        long pinned = 0L;
+        while (shields != 0) {
+            long shield = shields & -shields;
+            shields ^= shield;
+            long without = occupied ^ shield;
+            long behind = (Attacks.bishop(king, without) & diagonal)
+                | (Attacks.rook(king, without) & straight);
+            if ((behind & ~seen) != 0) {
+                pinned |= shield;
+            }
+        }
+        return pinned;
+    }
+
+    /**
+     * @param board a position
+     * @return whether the side to move is in check
+     */
+    public static boolean inCheck(Board board) {
+        int us = board.sideToMove;
+        int king = Long.numberOfTrailingZeros(
+            board.pieces[Board.piece(us, Board.KING)]);
+        return board.attackersOf(king, us ^ 1, board.occupied) != 0;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Walks the movetext of a PGN game and reports where each SAN move
+ * starts and ends, skipping move numbers and stopping at the game
+ * termination marker. Nothing is copied, so the moves can be decoded
+ * with `SanMove.decode(text, start(), end())` straight from the text.
+ *
+ * Comments in braces or after a semicolon, recursive variations in
+ * parentheses, numeric annotation glyphs such as "$14" and escape lines
+ * starting with '%' are skipped in the same pass. An unterminated comment
+ * or variation runs to the end of the game rather than failing.
+ */
+public class Movetext {
+
+    private CharSequence text;
+    private int position;
+    private int start;
+    private int end;
+
+    public Movetext() {
+    }
+
+    public Movetext(CharSequence text, int from) {
+        reset(text, from);
+    }
+
+    /**
+     * Start walking text from index from, which should be the start of
+     * the movetext.
+     *
+     * @param text the PGN text of a game
+     * @param from the index to start at
+     */
+    public void reset(CharSequence text, int from) {
+        this.text = text;
+        this.position = from;
+        this.start = from;
+        this.end = from;
+    }
+
+    /**
+     * Advance to the next move.
+     *
+     * @return whether there was another move before the end of the game
+     */
+    public boolean next() {
+        int length = text.length();
+        while (true) {
+            while (position < length
+                && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            if (position == length) {
+                return false;
+            }
+            char c = text.charAt(position);
+            if (c == '{') {
+                position = skipPast(position + 1, length, '}');
+                continue;
+            } else if (c == ';' || (c == '%' && (position == 0
+                    || text.charAt(position - 1) == '\n'))) {
+                position = skipPast(position + 1, length, '\n');
+                continue;
+            } else if (c == '(') {
+                position = skipVariation(position + 1, length);
+                continue;
+            } else if (c == ')') {
+                // A stray close of a variation never opened.
+                position++;
+                continue;
+            } else if (c == '$') {
+                position++;
+                while (position < length
+                    && Character.isDigit(text.charAt(position))) {
+                    position++;
+                }
+                continue;
+            }
+            int tokenStart = position;
+            while (position < length && !endsToken(text.charAt(position))) {
+                position++;
+            }
+            if (GameSplitter.isResult(text, tokenStart, position)) {
+                position = length;
+                return false;
+            }
+
+            // Drop a leading move number such as "12." or "12...".
+            int i = tokenStart;
+            while (i < position && Character.isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > tokenStart && i < position && text.charAt(i) == '.') {
+                while (i < position && text.charAt(i) == '.') {
+                    i++;
+                }
+                tokenStart = i;
+            } else if (i == position) {
+                tokenStart = i;
+            }
+            if (tokenStart < position) {
+                start = tokenStart;
+                end = position;
+                return true;
+            }
+        }
+    }
+
+    private static boolean endsToken(char c) {
+        return Character.isWhitespace(c) || c == '{' || c == '(' || c == ')'
+            || c == ';' || c == '$';
+    }
+
+    /**
+     * @return the index just past the first close at or after from, or
+     *     length if there is none
+     */
+    private int skipPast(int from, int length, char close) {
+        while (from < length && text.charAt(from) != close) {
+            from++;
+        }
+        return Math.min(from + 1, length);
+    }
+
+    /**
+     * @return the index just past the parenthesis closing the variation
+     *     whose body starts at from, or length if it is never closed
+     */
+    private int skipVariation(int from, int length) {
+        int depth = 1;
+        while (from < length) {
+            char c = text.charAt(from++);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return from;
+            } else if (c == '{') {
+                from = skipPast(from, length, '}');
+            } else if (c == ';') {
+                from = skipPast(from, length, '\n');
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the index of the first character of the current move
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return the index just past the last character of the current move
+     */
+    public int end() {
+        return end;
+    }
+}
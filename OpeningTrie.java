@@ -0,0 +1,433 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * A prefix trie of the opening moves of many games, for looking up how
+ * often a line was played and how those games ended.
+ *
+ * Nodes are rows of parallel `int` arrays rather than objects: node 0 is
+ * the initial position and every other node is the move that leads to it
+ * from its parent. Each node counts the games that reached it and their
+ * results. Once built, the trie is frozen: nodes are renumbered in
+ * preorder and game ids are sorted by the last node each game reached.
+ * Then the games that reached any node form one contiguous run of that
+ * list, so queries need no scan of the corpus.
+ */
+public class OpeningTrie {
+
+    private static final int MAGIC = 0x50474E54;
+    private static final int VERSION = 1;
+
+    private final int maxPlies;
+    private int size;
+    private int[] moves = new int[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] games = new int[1024];
+    private int[] whiteWins = new int[1024];
+    private int[] draws = new int[1024];
+    private int[] blackWins = new int[1024];
+
+    private int gameCount;
+    // Before freezing: the last node of each game. After: game ids sorted
+    // by that node, and the index in that list of each node's first game.
+    private int[] gameNodes = new int[1024];
+    private int[] firstGame;
+    private boolean frozen;
+    // The moves of the game being added, resolved before any is counted.
+    private final int[] line;
+
+    /**
+     * @param maxPlies the number of moves of each game to index
+     */
+    public OpeningTrie(int maxPlies) {
+        this.maxPlies = maxPlies;
+        line = new int[maxPlies];
+        size = 1;
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+    }
+
+    /**
+     * Replay the opening of game and add it to the trie.
+     *
+     * @param game the PGN text of a chess game
+     * @return the id of the game, counting from 0 in the order added
+     * @throws IllegalArgumentException if a move of the opening cannot be
+     *     read or played, in which case the trie is unchanged
+     */
+    public int add(CharSequence game) {
+        if (frozen) {
+            throw new IllegalStateException("trie is frozen");
+        }
+        TagSection tags = TagSection.of(game);
+        String result = tags.get("Result");
+        Board board = new Board();
+        SanMove move = new SanMove();
+        Movetext movetext = new Movetext(game, tags.movetextStart());
+
+        int plies = 0;
+        while (plies < maxPlies && movetext.next()) {
+            line[plies++] = PgnReader.playMove(board, move, game, movetext);
+        }
+
+        int node = 0;
+        count(node, result);
+        for (int ply = 0; ply < plies; ply++) {
+            node = child(node, line[ply], true);
+            count(node, result);
+        }
+
+        if (gameCount == gameNodes.length) {
+            gameNodes = Arrays.copyOf(gameNodes, gameCount * 2);
+        }
+        gameNodes[gameCount] = node;
+        return gameCount++;
+    }
+
+    private void count(int node, String result) {
+        games[node]++;
+        if ("1-0".equals(result)) {
+            whiteWins[node]++;
+        } else if ("0-1".equals(result)) {
+            blackWins[node]++;
+        } else if ("1/2-1/2".equals(result)) {
+            draws[node]++;
+        }
+    }
+
+    /**
+     * @return the child of node reached by move, or -1 if there is none
+     *     and create is false
+     */
+    private int child(int node, int move, boolean create) {
+        int last = -1;
+        for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+            if (moves[c] == move) {
+                return c;
+            }
+            last = c;
+        }
+        if (!create) {
+            return -1;
+        }
+        if (size == moves.length) {
+            grow();
+        }
+        int c = size++;
+        moves[c] = move;
+        firstChild[c] = -1;
+        nextSibling[c] = -1;
+        if (last < 0) {
+            firstChild[node] = c;
+        } else {
+            nextSibling[last] = c;
+        }
+        return c;
+    }
+
+    private void grow() {
+        int capacity = moves.length * 2;
+        moves = Arrays.copyOf(moves, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        games = Arrays.copyOf(games, capacity);
+        whiteWins = Arrays.copyOf(whiteWins, capacity);
+        draws = Arrays.copyOf(draws, capacity);
+        blackWins = Arrays.copyOf(blackWins, capacity);
+    }
+
+    /**
+     * Renumber the nodes in preorder and sort the games by their last
+     * node. No games can be added afterward.
+     */
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        // Preorder walk with an explicit stack; order[i] is the old
+        // number of the i-th node visited.
+        int[] order = new int[size];
+        int[] renumber = new int[size];
+        int[] stack = new int[size];
+        int top = 0;
+        int visited = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            renumber[node] = visited;
+            order[visited++] = node;
+            // Push children in reverse so the first child is visited first.
+            int start = top;
+            for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+                stack[top++] = c;
+            }
+            for (int i = start, j = top - 1; i < j; i++, j--) {
+                int t = stack[i];
+                stack[i] = stack[j];
+                stack[j] = t;
+            }
+        }
+
+        int[] newMoves = new int[size];
+        int[] newFirstChild = new int[size];
+        int[] newNextSibling = new int[size];
+        int[] newGames = new int[size];
+        int[] newWhite = new int[size];
+        int[] newDraws = new int[size];
+        int[] newBlack = new int[size];
+        for (int i = 0; i < size; i++) {
+            int old = order[i];
+            newMoves[i] = moves[old];
+            newFirstChild[i] = firstChild[old] < 0
+                ? -1 : renumber[firstChild[old]];
+            newNextSibling[i] = nextSibling[old] < 0
+                ? -1 : renumber[nextSibling[old]];
+            newGames[i] = games[old];
+            newWhite[i] = whiteWins[old];
+            newDraws[i] = draws[old];
+            newBlack[i] = blackWins[old];
+        }
+        moves = newMoves;
+        firstChild = newFirstChild;
+        nextSibling = newNextSibling;
+        games = newGames;
+        whiteWins = newWhite;
+        draws = newDraws;
+        blackWins = newBlack;
+
+        // Counting sort of the game ids by the preorder number of their
+        // last node. A node's games then start after all games ending
+        // at nodes visited before it.
+        int[] ending = new int[size + 1];
+        for (int g = 0; g < gameCount; g++) {
+            ending[renumber[gameNodes[g]] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            ending[i + 1] += ending[i];
+        }
+        firstGame = Arrays.copyOf(ending, size);
+        int[] sorted = new int[gameCount];
+        for (int g = 0; g < gameCount; g++) {
+            sorted[ending[renumber[gameNodes[g]]]++] = g;
+        }
+        gameNodes = sorted;
+        frozen = true;
+    }
+
+    /**
+     * Find the node reached by a line of moves.
+     *
+     * @param line moves in SAN, with or without move numbers, such as
+     *     "1. e4 c5 2. Nf3"
+     * @return the node after the line, or -1 if no game played it,
+     *     which includes a line that cannot be played
+     */
+    public int find(CharSequence line) {
+        Board board = new Board();
+        SanMove move = new SanMove();
+        Movetext movetext = new Movetext(line, 0);
+        int node = 0;
+        try {
+            while (node >= 0 && movetext.next()) {
+                int played = PgnReader.playMove(board, move, line, movetext);
+                node = child(node, played, false);
+            }
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        return node;
+    }
+
+    /**
+     * @return the number of nodes, including the root
+     */
+    public int size() {
+        return size;
+    }
+
+    public int gameCount() {
+        return gameCount;
+    }
+
+    /**
+     * @return the move that leads to node, packed as by `Move.of`
+     */
+    public int move(int node) {
+        return moves[node];
+    }
+
+    public int games(int node) {
+        return games[node];
+    }
+
+    public int whiteWins(int node) {
+        return whiteWins[node];
+    }
+
+    public int draws(int node) {
+        return draws[node];
+    }
+
+    public int blackWins(int node) {
+        return blackWins[node];
+    }
+
+    /**
+     * @return the ids of the games that reached node, in no set order
+     */
+    public int[] gameIds(int node) {
+        freeze();
+        return Arrays.copyOfRange(gameNodes, firstGame[node],
+            firstGame[node] + games[node]);
+    }
+
+    /**
+     * @return the children of node, most played first
+     */
+    public int[] children(int node) {
+        int count = 0;
+        for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+            count++;
+        }
+        int[] children = new int[count];
+        count = 0;
+        for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+            children[count++] = c;
+        }
+        for (int i = 1; i < count; i++) {
+            int c = children[i];
+            int j = i;
+            while (j > 0 && games[children[j - 1]] < games[c]) {
+                children[j] = children[j - 1];
+                j--;
+            }
+            children[j] = c;
+        }
+        return children;
+    }
+
+    /**
+     * Freeze the trie and write it to path.
+     *
+     * @param path the file to write
+     */
+    public void write(Path path) throws IOException {
+        freeze();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(maxPlies);
+            out.writeInt(size);
+            out.writeInt(gameCount);
+            for (int[] column : new int[][] {moves, firstChild, nextSibling,
+                games, whiteWins, draws, blackWins, firstGame}) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(column[i]);
+                }
+            }
+            for (int g = 0; g < gameCount; g++) {
+                out.writeInt(gameNodes[g]);
+            }
+        }
+    }
+
+    /**
+     * Load a trie written by write.
+     *
+     * @param path the file to read
+     * @return the frozen trie
+     */
+    public static OpeningTrie read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path),
+                1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not an opening trie");
+            }
+            OpeningTrie trie = new OpeningTrie(in.readInt());
+            int size = in.readInt();
+            trie.size = size;
+            trie.gameCount = in.readInt();
+            trie.moves = readInts(in, size);
+            trie.firstChild = readInts(in, size);
+            trie.nextSibling = readInts(in, size);
+            trie.games = readInts(in, size);
+            trie.whiteWins = readInts(in, size);
+            trie.draws = readInts(in, size);
+            trie.blackWins = readInts(in, size);
+            trie.firstGame = readInts(in, size);
+            trie.gameNodes = readInts(in, trie.gameCount);
+            trie.frozen = true;
+            return trie;
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count)
+            throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Usage: java OpeningTrie build index plies file...
+     *        java OpeningTrie query index [line]
+     *
+     * build replays the first plies moves of every game in the PGN files
+     * and writes the trie to index. A game whose opening cannot be
+     * replayed is reported and left out. query prints how many games played
+     * line and how they ended, then the same for each continuation.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args[0].equals("build")) {
+            OpeningTrie trie = new OpeningTrie(Integer.parseInt(args[2]));
+            int skipped = 0;
+            for (int i = 3; i < args.length; i++) {
+                try (MappedPgnFile file = new MappedPgnFile(
+                        Paths.get(args[i]))) {
+                    while (file.hasNext()) {
+                        try {
+                            trie.add(file.next());
+                        } catch (IllegalArgumentException e) {
+                            System.err.format("%s:%d: %s%n", args[i],
+                                file.gameOffset(), e.getMessage());
+                            skipped++;
+                        }
+                    }
+                }
+            }
+            trie.write(Paths.get(args[1]));
+            System.out.format("%d games, %d skipped, %d nodes%n",
+                trie.gameCount(), skipped, trie.size());
+        } else {
+            OpeningTrie trie = read(Paths.get(args[1]));
+            int node = trie.find(args.length > 2 ? args[2] : "");
+            if (node < 0) {
+                System.out.println("No games");
+                return;
+            }
+            trie.print("Line", node);
+            for (int child : trie.children(node)) {
+                trie.print(Move.toString(trie.move(child)), child);
+            }
+        }
+    }
+
+    private void print(String label, int node) {
+        System.out.format("%-6s games: %d  1-0: %d  1/2-1/2: %d  0-1: %d%n",
+            label, games[node], whiteWins[node], draws[node],
+            blackWins[node]);
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the leaf nodes of the legal move tree of a position to a fixed
+ * depth (perft), to check `MoveGenerator` and `Board.executeMove`
+ * against published counts and to measure their speed.
+ *
+ * A search plays and takes back moves on one board with makeMove and
+ * unmakeMove, generating each ply into a move array allocated up front,
+ * so it allocates nothing after it starts. At depth 1 the number of
+ * legal moves is counted rather than played.
+ *
+ * @see https://www.chessprogramming.org/Perft_Results
+ */
+public final class Perft {
+
+    private final Board board = new Board();
+    private final int[][] moves;
+
+    /**
+     * @param depth the deepest search this Perft will run
+     */
+    public Perft(int depth) {
+        moves = new int[depth + 1][MoveGenerator.MAX_MOVES];
+    }
+
+    /**
+     * @param board the root position, which is left unchanged
+     * @param depth the number of plies to search, at most the depth this
+     *     Perft was created for
+     * @return the number of move sequences of depth plies from board
+     */
+    public long count(Board board, int depth) {
+        this.board.copyFrom(board);
+        return search(depth);
+    }
+
+    /**
+     * @return the number of move sequences of depth plies that start with
+     *     move from board
+     */
+    long count(Board board, int move, int depth) {
+        this.board.copyFrom(board);
+        make(this.board, move);
+        return search(depth);
+    }
+
+    private long search(int depth) {
+        int[] list = moves[depth];
+        int count = MoveGenerator.generate(board, list);
+        if (depth <= 1) {
+            return depth == 1 ? count : 1;
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            make(board, list[i]);
+            nodes += search(depth - 1);
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+
+    static void make(Board board, int move) {
+        board.makeMove(Move.from(move), Move.to(move), Move.promotion(move));
+    }
+
+    /**
+     * Count the nodes below every legal move of board, splitting the
+     * root moves across threads.
+     *
+     * @param board the root position
+     * @param depth the number of plies to search, at least 1
+     * @param threads the number of threads to use
+     * @return the moves of board and the nodes below each, in
+     *     generation order
+     */
+    public static long[][] divide(Board board, int depth, int threads)
+            throws InterruptedException {
+        int[] list = new int[MoveGenerator.MAX_MOVES];
+        int count = MoveGenerator.generate(board, list);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<Perft> perft =
+            ThreadLocal.withInitial(() -> new Perft(depth));
+        List<Future<Long>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                int move = list[i];
+                futures.add(pool.submit(
+                    () -> perft.get().count(board, move, depth - 1)));
+            }
+            long[][] result = new long[count][];
+            for (int i = 0; i < count; i++) {
+                result[i] = new long[] {list[i], futures.get(i).get()};
+            }
+            return result;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Usage: java Perft depth [fen] [-threads n] [-divide]
+     *
+     * Prints the perft count of the position given in FEN, or of the
+     * starting position, with the time taken and nodes per second.
+     * -divide also prints the count below each root move.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int depth = Integer.parseInt(args[0]);
+        int threads = 1;
+        boolean divide = false;
+        StringBuilder fen = new StringBuilder();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-divide")) {
+                divide = true;
+            } else {
+                fen.append(fen.length() > 0 ? " " : "").append(args[i]);
+            }
+        }
+        Board board = new Board();
+        if (fen.length() > 0) {
+            board.setFen(fen.toString());
+        }
+
+        long start = System.nanoTime();
+        long nodes = 0;
+        if (depth < 1) {
+            nodes = 1;
+        } else {
+            for (long[] entry : divide(board, depth, threads)) {
+                if (divide) {
+                    System.out.println(Move.toString((int) entry[0]) + ": "
+                        + entry[1]);
+                }
+                nodes += entry[1];
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.format("perft %d: %d nodes in %.3f s, %.0f nodes/s%n",
+            depth, nodes, nanos / 1e9, nodes * 1e9 / Math.max(nanos, 1));
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Reads a PGN database one game at a time, so that files holding millions
+ * of games can be replayed without loading them into memory.
+ *
+ * Each game is handed out as a `String` in the same layout
+ * `PgnReader.fileContent` produces for a single-game file: the tag pairs,
+ * one blank line, then the movetext, every line ending in "\n". That
+ * means `PgnReader.tagValue` and `PgnReader.finalPosition` can be called
+ * on the games unchanged.
+ *
+ * @see http://www.saremba.de/chessgml/standards/pgn/pgn-complete.htm#c8.2
+ */
+public class PgnStream implements Iterator<String>, Closeable {
+
+    private final BufferedReader reader;
+    private final StringBuilder tags = new StringBuilder();
+    private final StringBuilder movetext = new StringBuilder();
+    private String pendingLine;
+    private String nextGame;
+    private boolean finished;
+    private long gamesRead;
+    private final GameSplitter splitter = new GameSplitter();
+
+    public PgnStream(Reader in) {
+        if (in instanceof BufferedReader) {
+            reader = (BufferedReader) in;
+        } else {
+            reader = new BufferedReader(in, 1 << 16);
+        }
+    }
+
+    public PgnStream(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hand every game read from in to action, in file order. in is left
+     * open for the caller to close.
+     *
+     * @param in the PGN text to read
+     * @param action called once per game with that game's PGN text
+     * @return the number of games read
+     */
+    public static long forEachGame(Reader in, Consumer<String> action) {
+        PgnStream stream = new PgnStream(in);
+        while (stream.hasNext()) {
+            action.accept(stream.next());
+        }
+        return stream.gamesRead();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextGame == null && !finished) {
+            try {
+                nextGame = readGame();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (nextGame == null) {
+                finished = true;
+            }
+        }
+        return nextGame != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String game = nextGame;
+        nextGame = null;
+        gamesRead++;
+        return game;
+    }
+
+    /**
+     * @return the number of games returned by next() so far
+     */
+    public long gamesRead() {
+        return gamesRead;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read lines until one complete game has been collected, splitting
+     * games as `GameSplitter` does.
+     */
+    private String readGame() throws IOException {
+        tags.setLength(0);
+        movetext.setLength(0);
+        splitter.reset();
+
+        String line;
+        while ((line = nextLine()) != null) {
+            switch (splitter.line(line, 0, line.length())) {
+            case GameSplitter.TAG:
+                tags.append(line.trim()).append('\n');
+                break;
+            case GameSplitter.MOVETEXT:
+                movetext.append(line).append('\n');
+                break;
+            case GameSplitter.END:
+                movetext.append(line).append('\n');
+                return buildGame();
+            case GameSplitter.NEXT:
+                // A new game started without the old one terminating.
+                pendingLine = line;
+                return buildGame();
+            default:
+                break;
+            }
+        }
+
+        if (tags.length() == 0 && movetext.length() == 0) {
+            return null;
+        }
+        return buildGame();
+    }
+
+    private String nextLine() throws IOException {
+        if (pendingLine != null) {
+            String line = pendingLine;
+            pendingLine = null;
+            return line;
+        }
+        return reader.readLine();
+    }
+
+    private String buildGame() {
+        return tags.append('\n').append(movetext).toString();
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on a fixed pool of worker threads and hands their results
+ * to a sink in submission order, on the submitting thread.
+ *
+ * At most `window` tasks are in flight at once, which bounds memory and
+ * stops the submitter from running ahead of the workers. Each worker
+ * thread gets its own W, made once from the supplier, for the boards and
+ * parsers it reuses across tasks.
+ *
+ * @param <W> the per-thread state tasks are given
+ * @param <T> the result of a task
+ */
+final class Pipeline<W, T> implements AutoCloseable {
+
+    private final ExecutorService pool;
+    private final ThreadLocal<W> workers;
+    private final int window;
+    private final Consumer<? super T> sink;
+    private final ArrayDeque<CompletableFuture<T>> inFlight =
+        new ArrayDeque<>();
+
+    /**
+     * @param threads the number of worker threads
+     * @param window the most tasks submitted but not yet delivered
+     * @param workers makes the state of one worker thread
+     * @param sink receives each result
+     */
+    Pipeline(int threads, int window, Supplier<? extends W> workers,
+            Consumer<? super T> sink) {
+        if (threads < 1 || window < 1) {
+            throw new IllegalArgumentException(
+                "threads and window must be positive");
+        }
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "pipeline-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = ThreadLocal.withInitial(workers);
+        this.window = window;
+        this.sink = sink;
+    }
+
+    /**
+     * Queue a task, first delivering the oldest result if the window is
+     * full.
+     *
+     * @param task runs on a worker thread with that thread's state
+     */
+    void submit(Function<? super W, ? extends T> task) {
+        if (inFlight.size() >= window) {
+            sink.accept(inFlight.removeFirst().join());
+        }
+        inFlight.addLast(CompletableFuture.supplyAsync(
+            () -> task.apply(workers.get()), pool));
+    }
+
+    /**
+     * Wait for every task submitted and deliver the results still held.
+     */
+    void finish() {
+        while (!inFlight.isEmpty()) {
+            sink.accept(inFlight.removeFirst().join());
+        }
+    }
+
+    /**
+     * Stop the worker threads. Results not yet delivered are dropped.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Receives every ply of the games a `Replayer` plays, in order.
+ *
+ * The Board handed to a listener is the replay's own board, not a copy:
+ * it is only valid during the call, and a listener must not change it.
+ * Its hash and side to move are read through `Board.hash()` and
+ * `Board.sideToMove()`.
+ */
+public interface PlyListener {
+
+    /**
+     * Called before the first ply of a game.
+     *
+     * @param game the PGN text of the game
+     * @param tags the game's parsed tag section
+     */
+    default void startGame(CharSequence game, TagSection tags) {
+    }
+
+    /**
+     * Called after each ply is played.
+     *
+     * @param ply the number of the ply, from 1
+     * @param move the move played, packed as by `Move.of`
+     * @param captured the piece code of the piece captured, or
+     *     `Board.EMPTY`
+     * @param board the position after the move
+     */
+    void ply(int ply, int move, int captured, Board board);
+
+    /**
+     * Called after the last ply of a game.
+     *
+     * @param plies the number of plies in the game
+     * @param board the final position
+     */
+    default void endGame(int plies, Board board) {
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, least recently used cache of positions keyed by the hash of
+ * the moves that lead to them.
+ *
+ * Databases full of the same openings replay the same first moves over
+ * and over. With a cache, a replay resumes from the longest move prefix
+ * seen before instead of starting from the initial position. Only
+ * prefixes of at most maxPlies plies are stored, so the cache holds
+ * opening positions rather than one entry per ply of every game.
+ *
+ * The first time a prefix is put only its hash is remembered; the board
+ * is copied when the same prefix comes round again, so lines no other
+ * game shares cost no copies. The cache is safe to share between
+ * threads: it is split into stripes by hash, each with its own lock and
+ * its own share of the capacity, so workers rarely wait on each other.
+ */
+public class PositionCache {
+
+    private static final int STRIPE_BITS = 4;
+
+    private final int maxPlies;
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * One stripe's positions in least recently used order, and the
+     * prefixes put once but not yet stored.
+     */
+    private final class Stripe {
+        private final LinkedHashMap<Long, Board> entries;
+        // Direct-mapped, so a prefix seen once may be forgotten.
+        private final long[] seen;
+        private Board spare;
+
+        Stripe(int capacity) {
+            entries = new LinkedHashMap<Long, Board>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Long, Board> e) {
+                    if (size() > capacity) {
+                        // Recycle the evicted board for the next insertion.
+                        spare = e.getValue();
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            seen = new long[Integer.highestOneBit(Math.max(1,
+                2 * capacity - 1)) << 1];
+        }
+    }
+
+    /**
+     * @param capacity the most positions to keep
+     * @param maxPlies the longest move prefix to store
+     */
+    public PositionCache(int capacity, int maxPlies) {
+        this.maxPlies = maxPlies;
+        int share = Math.max(1, capacity >> STRIPE_BITS);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(share);
+        }
+    }
+
+    public int maxPlies() {
+        return maxPlies;
+    }
+
+    private Stripe stripe(long prefix) {
+        return stripes[(int) (prefix >>> (64 - STRIPE_BITS))];
+    }
+
+    /**
+     * Hash of a move prefix extended by the SAN move text[start, end).
+     * Check and annotation marks are ignored, so "Bb5+" and "Bb5" give
+     * the same key.
+     *
+     * @param prefix the hash of the moves before this one, 0 for none
+     * @param text the text holding the move
+     * @param start the index of the move's first character
+     * @param end the index just past the move's last character
+     * @return the hash of the longer prefix
+     */
+    public static long extend(long prefix, CharSequence text, int start,
+            int end) {
+        long h = prefix * 0x9E3779B97F4A7C15L + 1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '+' && c != '#' && c != '!' && c != '?') {
+                h = (h ^ c) * 0x100000001B3L;
+            }
+        }
+        return Zobrist.mix(h);
+    }
+
+    /**
+     * Copy into board the position after the longest cached prefix.
+     *
+     * @param prefixes prefixes[i] is the hash of the first i + 1 moves
+     * @param plies the number of moves in the game
+     * @param board receives the cached position if there is one
+     * @return the number of moves already played on board, 0 on a miss
+     */
+    public int resume(long[] prefixes, int plies, Board board) {
+        for (int ply = Math.min(plies, maxPlies); ply > 0; ply--) {
+            Stripe stripe = stripe(prefixes[ply - 1]);
+            synchronized (stripe) {
+                Board cached = stripe.entries.get(prefixes[ply - 1]);
+                if (cached != null) {
+                    board.copyFrom(cached);
+                    hits.increment();
+                    return ply;
+                }
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    /**
+     * Remember the position reached after a move prefix. The position is
+     * only stored once the same prefix has been put before.
+     *
+     * @param prefix the hash of the move prefix
+     * @param board the position after those moves
+     */
+    public void put(long prefix, Board board) {
+        Stripe stripe = stripe(prefix);
+        synchronized (stripe) {
+            int slot = (int) prefix & (stripe.seen.length - 1);
+            if (stripe.seen[slot] != prefix) {
+                stripe.seen[slot] = prefix;
+                return;
+            } else if (stripe.entries.containsKey(prefix)) {
+                return;
+            }
+            Board copy = stripe.spare != null ? stripe.spare : new Board();
+            stripe.spare = null;
+            copy.copyFrom(board);
+            stripe.entries.put(prefix, copy);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("positions=%d hits=%d misses=%d evictions=%d",
+            size(), hits(), misses(), evictions());
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An on-disk index from positions to the games that reach them, so the
+ * games reaching a FEN can be found without replaying the corpus.
+ *
+ * Building replays every game once and records the Zobrist hash of the
+ * position after each ply with the game's id, its position in the
+ * corpus. The pairs are spilled to 256 partition files by the top bits
+ * of the hash, and each partition is then radix sorted in memory, so a
+ * corpus of any size is built in two sequential passes.
+ *
+ * The index file holds, after a header: a directory with the first entry
+ * of every hash bucket, the sorted hashes, the game id of each hash, and
+ * a table of the file and byte offset of every game. A bucket is the top
+ * bits of a hash. The directory is memory-mapped, and a query reads only
+ * its bucket, so it costs a few small reads however large the index is.
+ * The starting position, which every game reaches, is not indexed.
+ */
+public final class PositionIndex implements Closeable {
+
+    private static final int MAGIC = 0x50474E50;
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+    private static final int PARTITION_BITS = 8;
+    private static final int MAX_BUCKET_BITS = 22;
+
+    private final FileChannel channel;
+    private final int bucketBits;
+    private final long entries;
+    private final MappedByteBuffer directory;
+    private final long hashesStart;
+    private final long gamesStart;
+    private final List<String> files = new ArrayList<>();
+    private final long gameTableStart;
+    private final long gameCount;
+
+    /**
+     * Open an index written by build.
+     */
+    public PositionIndex(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(header, 0L);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a position index");
+        }
+        bucketBits = header.getInt(8);
+        entries = header.getLong(16);
+        gameCount = header.getLong(24);
+        long directorySize = 8L * ((1 << bucketBits) + 1);
+        directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER,
+            directorySize);
+        hashesStart = HEADER + directorySize;
+        gamesStart = hashesStart + 8 * entries;
+        long filesStart = gamesStart + 4 * entries;
+
+        ByteBuffer count = ByteBuffer.allocate(4);
+        readFully(count, filesStart);
+        long position = filesStart + 4;
+        for (int i = 0; i < count.getInt(0); i++) {
+            ByteBuffer length = ByteBuffer.allocate(2);
+            readFully(length, position);
+            ByteBuffer name = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+            readFully(name, position + 2);
+            files.add(new String(name.array(), StandardCharsets.UTF_8));
+            position += 2 + name.capacity();
+        }
+        gameTableStart = position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Position index ends early");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @param hash the Zobrist hash of a position, as `Board.hash()`
+     * @return the ids of the games that reach the position, in increasing
+     *     order
+     */
+    public int[] find(long hash) throws IOException {
+        int bucket = (int) (hash >>> (64 - bucketBits));
+        long first = directory.getLong(8 * bucket);
+        long last = directory.getLong(8 * (bucket + 1));
+        int size = (int) (last - first);
+        if (size == 0) {
+            return new int[0];
+        }
+        ByteBuffer hashes = ByteBuffer.allocate(8 * size);
+        readFully(hashes, hashesStart + 8 * first);
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(hashes.getLong(8 * mid), hash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < size && hashes.getLong(8 * end) == hash) {
+            end++;
+        }
+        if (end == low) {
+            return new int[0];
+        }
+        ByteBuffer games = ByteBuffer.allocate(4 * (end - low));
+        readFully(games, gamesStart + 4 * (first + low));
+        int[] ids = new int[end - low];
+        games.asIntBuffer().get(ids);
+        return ids;
+    }
+
+    /**
+     * @param fen a position in Forsyth-Edwards Notation
+     * @return the ids of the games that reach the position
+     */
+    public int[] find(String fen) throws IOException {
+        Board board = new Board();
+        board.setFen(fen);
+        return find(board.hash());
+    }
+
+    /**
+     * @return where game id was read from, as "file:offset"
+     */
+    public String location(int id) throws IOException {
+        if (id < 0 || id >= gameCount) {
+            throw new IllegalArgumentException("No game " + id);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(12);
+        readFully(entry, gameTableStart + 12L * id);
+        return files.get(entry.getInt(0)) + ":" + entry.getLong(4);
+    }
+
+    public long entries() {
+        return entries;
+    }
+
+    public long games() {
+        return gameCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Index every game of the PGN files pgns into the file index.
+     *
+     * @return the number of games indexed, counting games that could not
+     *     be replayed, which keep their id but have no entries
+     */
+    public static long build(Path index, List<Path> pgns) throws IOException {
+        Path parent = index.toAbsolutePath().getParent();
+        Path spill = Files.createTempDirectory(parent, "index");
+        int partitions = 1 << PARTITION_BITS;
+        DataOutputStream[] parts = new DataOutputStream[partitions];
+        long[] partSizes = new long[partitions];
+        DataOutputStream gameTable = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(
+            spill.resolve("games")), 1 << 16));
+        try {
+            for (int p = 0; p < partitions; p++) {
+                parts[p] = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(spill.resolve("part" + p)),
+                    1 << 16));
+            }
+
+            long[][] plies = {new long[256]};
+            int[] count = new int[1];
+            Replayer replayer = new Replayer();
+            replayer.addListener((ply, move, captured, board) -> {
+                if (count[0] == plies[0].length) {
+                    plies[0] = Arrays.copyOf(plies[0], 2 * count[0]);
+                }
+                plies[0][count[0]++] = board.hash();
+            });
+            int id = 0;
+            for (int f = 0; f < pgns.size(); f++) {
+                try (MappedPgnFile file = new MappedPgnFile(pgns.get(f))) {
+                    while (file.hasNext()) {
+                        CharSequence game = file.next();
+                        gameTable.writeInt(f);
+                        gameTable.writeLong(file.gameOffset());
+                        count[0] = 0;
+                        try {
+                            replayer.replay(game);
+                        } catch (IllegalArgumentException e) {
+                            count[0] = 0;
+                        }
+                        // A position repeated in a game is indexed once.
+                        long[] hashes = plies[0];
+                        Arrays.sort(hashes, 0, count[0]);
+                        for (int i = 0; i < count[0]; i++) {
+                            if (i > 0 && hashes[i] == hashes[i - 1]) {
+                                continue;
+                            }
+                            int p =
+                                (int) (hashes[i] >>> (64 - PARTITION_BITS));
+                            parts[p].writeLong(hashes[i]);
+                            parts[p].writeInt(id);
+                            partSizes[p]++;
+                        }
+                        id++;
+                    }
+                }
+            }
+            gameTable.close();
+            for (DataOutputStream part : parts) {
+                part.close();
+            }
+            write(index, spill, partSizes, pgns, id);
+            return id;
+        } finally {
+            gameTable.close();
+            for (int p = 0; p < partitions; p++) {
+                if (parts[p] != null) {
+                    parts[p].close();
+                }
+                Files.deleteIfExists(spill.resolve("part" + p));
+            }
+            Files.deleteIfExists(spill.resolve("games"));
+            Files.deleteIfExists(spill);
+        }
+    }
+
+    /**
+     * Sort each partition and write the index file.
+     */
+    private static void write(Path index, Path spill, long[] partSizes,
+            List<Path> pgns, int gameCount) throws IOException {
+        long entries = 0;
+        long largest = 0;
+        for (long size : partSizes) {
+            entries += size;
+            largest = Math.max(largest, size);
+        }
+        // About eight entries a bucket, and never fewer buckets than
+        // partitions.
+        int bucketBits = Math.max(PARTITION_BITS, Math.min(MAX_BUCKET_BITS,
+            64 - Long.numberOfLeadingZeros(entries / 8)));
+        long[] directory = new long[(1 << bucketBits) + 1];
+        long directorySize = 8L * directory.length;
+        long hashesStart = HEADER + directorySize;
+        long gamesStart = hashesStart + 8 * entries;
+
+        long[] hashes = new long[(int) largest];
+        int[] games = new int[(int) largest];
+        long[] hashScratch = new long[(int) largest];
+        int[] gameScratch = new int[(int) largest];
+        try (FileChannel out = FileChannel.open(index,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = 0;
+            int bucket = 0;
+            for (int p = 0; p < partSizes.length; p++) {
+                int size = (int) partSizes[p];
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(
+                        spill.resolve("part" + p)), 1 << 16))) {
+                    for (int i = 0; i < size; i++) {
+                        hashes[i] = in.readLong();
+                        games[i] = in.readInt();
+                    }
+                }
+                radixSort(hashes, games, hashScratch, gameScratch, size);
+
+                for (int i = 0; i < size; i++) {
+                    int b = (int) (hashes[i] >>> (64 - bucketBits));
+                    while (bucket <= b) {
+                        directory[bucket++] = written + i;
+                    }
+                }
+                ByteBuffer block = ByteBuffer.allocate(8 * size);
+                block.asLongBuffer().put(hashes, 0, size);
+                writeFully(out, block, hashesStart + 8 * written);
+                block = ByteBuffer.allocate(4 * size);
+                block.asIntBuffer().put(games, 0, size);
+                writeFully(out, block, gamesStart + 4 * written);
+                written += size;
+            }
+            while (bucket < directory.length) {
+                directory[bucket++] = written;
+            }
+
+            ByteBuffer header =
+                ByteBuffer.allocate(HEADER + 8 * directory.length);
+            header.putInt(MAGIC).putInt(VERSION).putInt(bucketBits).putInt(0)
+                .putLong(entries).putLong(gameCount);
+            header.asLongBuffer().put(directory);
+            writeFully(out, header, 0L);
+
+            long position = gamesStart + 4 * entries;
+            byte[][] names = new byte[pgns.size()][];
+            int namesSize = 4;
+            for (int f = 0; f < names.length; f++) {
+                names[f] = pgns.get(f).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+                namesSize += 2 + names[f].length;
+            }
+            ByteBuffer table = ByteBuffer.allocate(namesSize);
+            table.putInt(names.length);
+            for (byte[] name : names) {
+                table.putShort((short) name.length).put(name);
+            }
+            position += writeFully(out, table, position);
+            try (FileChannel locations = FileChannel.open(
+                    spill.resolve("games"), StandardOpenOption.READ)) {
+                long size = locations.size();
+                long copied = 0;
+                while (copied < size) {
+                    copied += locations.transferTo(copied, size - copied,
+                        out.position(position + copied));
+                }
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer,
+            long position) throws IOException {
+        buffer.rewind();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
+        return length;
+    }
+
+    /**
+     * Sort hashes as unsigned values, moving games along with them, with a
+     * stable least significant digit radix sort, so entries with the same
+     * hash stay in game id order. The top PARTITION_BITS bits are the same
+     * throughout a partition and are not sorted on.
+     */
+    static void radixSort(long[] hashes, int[] games, long[] hashScratch,
+            int[] gameScratch, int size) {
+        int[] counts = new int[257];
+        for (int shift = 0; shift < 64 - PARTITION_BITS; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[(int) (hashes[i] >>> shift & 0xFF) + 1]++;
+            }
+            for (int d = 0; d < 256; d++) {
+                counts[d + 1] += counts[d];
+            }
+            for (int i = 0; i < size; i++) {
+                int d = (int) (hashes[i] >>> shift & 0xFF);
+                hashScratch[counts[d]] = hashes[i];
+                gameScratch[counts[d]++] = games[i];
+            }
+            System.arraycopy(hashScratch, 0, hashes, 0, size);
+            System.arraycopy(gameScratch, 0, games, 0, size);
+        }
+    }
+
+    /**
+     * Usage: java PositionIndex build index files...
+     *        java PositionIndex query index fen
+     *
+     * build indexes the positions of every game in the PGN files. query
+     * prints the id and location of every game that reaches the position,
+     * and the time the lookup took.
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args[1]);
+        if (args[0].equals("build")) {
+            List<Path> pgns = new ArrayList<>();
+            for (int i = 2; i < args.length; i++) {
+                pgns.add(Paths.get(args[i]));
+            }
+            long games = build(path, pgns);
+            try (PositionIndex index = new PositionIndex(path)) {
+                System.out.format("%d games, %d positions%n", games,
+                    index.entries());
+            }
+            return;
+        }
+        String fen = String.join(" ",
+            Arrays.copyOfRange(args, 2, args.length));
+        try (PositionIndex index = new PositionIndex(path)) {
+            long start = System.nanoTime();
+            int[] ids = index.find(fen);
+            long nanos = System.nanoTime() - start;
+            for (int id : ids) {
+                System.out.println(id + " " + index.location(id));
+            }
+            System.out.format("%d games in %.3f ms%n", ids.length,
+                nanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the stages of a batch replay:
+ * reading a game, parsing its tags, tokenizing and decoding its moves,
+ * resolving their origins, playing them and writing the final FEN.
+ *
+ * Time is summed per stage for each game and recorded once per game, so
+ * a replay adds a few clock reads per ply and a few counter updates per
+ * game. Histograms have one bucket per power of two nanoseconds. All
+ * methods are safe to call from several threads, and a replay without
+ * metrics pays nothing. The metrics can be registered as an MBean and
+ * printed as a periodic summary line.
+ */
+public class ReplayMetrics implements ReplayMetricsMBean {
+
+    public static final int READ = 0;
+    public static final int TAGS = 1;
+    public static final int PARSE = 2;
+    public static final int RESOLVE = 3;
+    public static final int PLAY = 4;
+    public static final int FEN = 5;
+    /** The histogram of whole games, which is the sum of the stages. */
+    public static final int GAME = 6;
+
+    static final String[] STAGES = {"read", "tags", "parse", "resolve",
+        "play", "fen", "game"};
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder plies = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder[] nanos = new LongAdder[STAGES.length];
+    private final AtomicLongArray histograms =
+        new AtomicLongArray(STAGES.length * 64);
+    private volatile long start = System.nanoTime();
+
+    public ReplayMetrics() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Add the time one game spent in a stage.
+     *
+     * @param stage one of the stage constants
+     * @param time the time in nanoseconds
+     */
+    public void record(int stage, long time) {
+        nanos[stage].add(time);
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(time, 0));
+        histograms.incrementAndGet(stage * 64 + Math.min(bucket, 63));
+    }
+
+    /**
+     * Count a game that has been replayed.
+     *
+     * @param plies the number of plies played
+     * @param failed whether the game could not be replayed
+     */
+    public void game(int plies, boolean failed) {
+        games.increment();
+        this.plies.add(plies);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    @Override
+    public long getGames() {
+        return games.sum();
+    }
+
+    @Override
+    public long getPlies() {
+        return plies.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getGamesPerSecond() {
+        return games.sum() * 1e9 / Math.max(System.nanoTime() - start, 1);
+    }
+
+    @Override
+    public double getPliesPerSecond() {
+        return plies.sum() * 1e9 / Math.max(System.nanoTime() - start, 1);
+    }
+
+    @Override
+    public long getReadNanos() {
+        return nanos[READ].sum();
+    }
+
+    @Override
+    public long getTagsNanos() {
+        return nanos[TAGS].sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return nanos[PARSE].sum();
+    }
+
+    @Override
+    public long getResolveNanos() {
+        return nanos[RESOLVE].sum();
+    }
+
+    @Override
+    public long getPlayNanos() {
+        return nanos[PLAY].sum();
+    }
+
+    @Override
+    public long getFenNanos() {
+        return nanos[FEN].sum();
+    }
+
+    @Override
+    public double percentileMicros(String stage, double percentile) {
+        int s = Arrays.asList(STAGES).indexOf(stage);
+        if (s < 0) {
+            throw new IllegalArgumentException("No stage " + stage);
+        }
+        long total = 0;
+        for (int b = 0; b < 64; b++) {
+            total += histograms.get(s * 64 + b);
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < 64; b++) {
+            seen += histograms.get(s * 64 + b);
+            if (seen >= rank && seen > 0) {
+                // Bucket b holds times below 2^b nanoseconds.
+                return Math.pow(2, b) / 1000;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("games %d (%.0f/s) plies %d (%.0f/s)"
+            + " errors %d |", getGames(), getGamesPerSecond(), getPlies(),
+            getPliesPerSecond(), getErrors()));
+        long total = 0;
+        for (int s = READ; s <= FEN; s++) {
+            total += nanos[s].sum();
+        }
+        for (int s = READ; s <= FEN; s++) {
+            sb.append(String.format(" %s %.0f%%", STAGES[s],
+                100.0 * nanos[s].sum() / Math.max(total, 1)));
+        }
+        sb.append(String.format(" | game p50 %.0f us p99 %.0f us",
+            percentileMicros("game", 50), percentileMicros("game", 99)));
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        games.reset();
+        plies.reset();
+        errors.reset();
+        for (LongAdder adder : nanos) {
+            adder.reset();
+        }
+        for (int i = 0; i < histograms.length(); i++) {
+            histograms.set(i, 0);
+        }
+        start = System.nanoTime();
+    }
+
+    /**
+     * Register these metrics with the platform MBean server as
+     * "chess:type=ReplayMetrics".
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("chess:type=ReplayMetrics"));
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Print the summary line to out every period seconds, from a daemon
+     * thread, until the returned executor is shut down.
+     */
+    public ScheduledExecutorService report(PrintStream out, long period) {
+        ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "replay-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        timer.scheduleAtFixedRate(() -> out.println(getSummary()), period,
+            period, TimeUnit.SECONDS);
+        return timer;
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
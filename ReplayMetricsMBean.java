@@ -0,0 +1,44 @@
+/**
+ * The JMX view of a `ReplayMetrics`. Times are in nanoseconds, summed
+ * over all games.
+ */
+public interface ReplayMetricsMBean {
+
+    long getGames();
+
+    long getPlies();
+
+    long getErrors();
+
+    double getGamesPerSecond();
+
+    double getPliesPerSecond();
+
+    long getReadNanos();
+
+    long getTagsNanos();
+
+    long getParseNanos();
+
+    long getResolveNanos();
+
+    long getPlayNanos();
+
+    long getFenNanos();
+
+    /**
+     * @return the summary line printed by periodic reports
+     */
+    String getSummary();
+
+    /**
+     * @param stage a stage name, such as "resolve", or "game" for whole
+     *     games
+     * @param percentile a percentile from 0 to 100
+     * @return an upper bound on that percentile of the stage's time per
+     *     game, in microseconds
+     */
+    double percentileMicros(String stage, double percentile);
+
+    void reset();
+}
@@ -0,0 +1,372 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A resident replay service, so callers pay for JVM startup and JIT
+ * warm-up once rather than on every game.
+ *
+ * The protocol is line based, over standard input and output or over
+ * TCP connections to a local port. A request is either
+ *
+ *     moves 1. e4 e5 2. Nf3
+ *
+ * with the movetext of a game on one line, or a line "game" followed by
+ * the PGN text of a game and a line holding only ".". Each request gets
+ * one line back, in request order:
+ *
+ *     ok FEN
+ *     ok FEN<tab>Event<tab>Site<tab>...
+ *     error message
+ *
+ * where a game's answer carries the values of the seven tag roster. The
+ * line "quit" ends a connection.
+ *
+ * Requests that arrive together are batched onto a shared pool of
+ * workers, and every worker thread keeps its own board, parsers and FEN
+ * buffer for all the games it replays.
+ */
+public class ReplayServer {
+
+    /** The most requests handed to a worker as one batch. */
+    static final int BATCH = 64;
+
+    private final ExecutorService pool;
+    private final ThreadLocal<Worker> workers =
+        ThreadLocal.withInitial(Worker::new);
+
+    /**
+     * @param threads the number of worker threads
+     */
+    public ReplayServer(int threads) {
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "replay-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The buffers one worker thread reuses for every game.
+     */
+    static final class Worker {
+        private final Board board = new Board();
+        private final SanMove move = new SanMove();
+        private final Movetext movetext = new Movetext();
+        private final TagSection tags = new TagSection();
+        private final FenWriter fen = new FenWriter();
+        private final StringBuilder out = new StringBuilder(256);
+
+        /**
+         * @param game the PGN text of a game, or bare movetext
+         * @param withTags whether to answer with the tag roster
+         * @return the response line, without its line break
+         */
+        String replay(CharSequence game, boolean withTags) {
+            out.setLength(0);
+            try {
+                int start = 0;
+                if (withTags) {
+                    tags.parse(game);
+                    start = tags.movetextStart();
+                }
+                board.reset();
+                movetext.reset(game, start);
+                while (movetext.next()) {
+                    PgnReader.playMove(board, move, game, movetext);
+                }
+                out.append("ok ");
+                fen.write(board).appendTo(out);
+                if (withTags) {
+                    for (String tag : BatchReplay.ROSTER) {
+                        String value = tags.get(tag);
+                        out.append('\t')
+                            .append(value == null ? "NOT GIVEN" : value);
+                    }
+                }
+            } catch (RuntimeException e) {
+                out.setLength(0);
+                out.append("error ").append(String.valueOf(e.getMessage())
+                    .replace('\n', ' '));
+            }
+            return out.toString();
+        }
+    }
+
+    /**
+     * A request read from a connection.
+     */
+    private static final class Request {
+        final String text;
+        final boolean game;
+        /** Why the request cannot be served, or null. */
+        final String error;
+
+        Request(String text, boolean game, String error) {
+            this.text = text;
+            this.game = game;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Serve one connection until it sends "quit" or closes. Requests are
+     * read on the calling thread and answered by a writer thread, so a
+     * client can send many requests before reading any answer.
+     *
+     * @throws IOException if the answers cannot be written, once the
+     *     requests already read have been replayed
+     */
+    public void serve(InputStream input, OutputStream output)
+            throws IOException {
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(
+            new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        // Batches in request order; an empty list marks the end.
+        BlockingQueue<CompletableFuture<List<String>>> answers =
+            new ArrayBlockingQueue<>(256);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> write(answers, out, failure),
+            "replay-writer");
+        writer.start();
+        try {
+            List<Request> batch = new ArrayList<>();
+            Request request;
+            boolean open = true;
+            while (open && failure.get() == null
+                && (request = read(in)) != null) {
+                batch.add(request);
+                // Keep batching while more requests are already waiting.
+                if (batch.size() == BATCH || !in.ready()) {
+                    open = enqueue(answers, submit(batch), writer);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (open && !batch.isEmpty()) {
+                enqueue(answers, submit(batch), writer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // End the writer even when reading fails. It keeps draining
+            // the queue after a failed write, and a writer that has died
+            // is not waited for.
+            try {
+                enqueue(answers,
+                    CompletableFuture.completedFuture(new ArrayList<>()),
+                    writer);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writer.interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Queue a batch of answers for the writer, waiting while the queue is
+     * full.
+     *
+     * @return false if the writer has died and will never take it
+     */
+    private static boolean enqueue(
+            BlockingQueue<CompletableFuture<List<String>>> answers,
+            CompletableFuture<List<String>> batch, Thread writer)
+            throws InterruptedException {
+        while (!answers.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<List<String>> submit(List<Request> batch) {
+        return CompletableFuture.supplyAsync(() -> {
+            Worker worker = workers.get();
+            List<String> lines = new ArrayList<>(batch.size());
+            for (Request request : batch) {
+                lines.add(request.error != null ? "error " + request.error
+                    : worker.replay(request.text, request.game));
+            }
+            return lines;
+        }, pool);
+    }
+
+    /**
+     * Write the answers of each batch in order until the end marker. Once
+     * a write fails the failure is recorded and later answers are
+     * dropped, but the queue is still drained so the reader never blocks
+     * on it.
+     */
+    private static void write(
+            BlockingQueue<CompletableFuture<List<String>>> answers,
+            Writer out, AtomicReference<IOException> failure) {
+        try {
+            while (true) {
+                CompletableFuture<List<String>> next = answers.take();
+                List<String> lines = next.join();
+                if (lines.isEmpty()) {
+                    break;
+                } else if (failure.get() != null) {
+                    continue;
+                }
+                try {
+                    for (String line : lines) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                    if (answers.isEmpty()) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }
+            if (failure.get() == null) {
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure.set(e);
+        }
+    }
+
+    /**
+     * @return the next request, or null at the end of the input or at
+     *     "quit"
+     */
+    private static Request read(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.equals("quit")) {
+                return null;
+            } else if (trimmed.startsWith("moves")
+                    && (trimmed.length() == 5
+                    || Character.isWhitespace(trimmed.charAt(5)))) {
+                return new Request(trimmed.substring(5), false, null);
+            } else if (trimmed.equals("game")) {
+                StringBuilder game = new StringBuilder();
+                while ((line = in.readLine()) != null
+                    && !line.trim().equals(".")) {
+                    game.append(line).append('\n');
+                }
+                return new Request(game.toString(), true, null);
+            } else if (!trimmed.isEmpty()) {
+                // Answered in order like any other request.
+                return new Request(null, false, "Unknown request " + trimmed);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accept connections on a local port until the process is stopped or
+     * the calling thread is interrupted, serving at most clients of them
+     * at once from a fixed pool of threads. Further connections wait in
+     * the listen backlog until one ends.
+     */
+    public void listen(int port, int clients) throws IOException {
+        ExecutorService connections = Executors.newFixedThreadPool(clients,
+            r -> new Thread(r, "replay-connection"));
+        Semaphore slots = new Semaphore(clients);
+        try (ServerSocket server = new ServerSocket(port, 50,
+                InetAddress.getLoopbackAddress())) {
+            while (true) {
+                slots.acquire();
+                Socket socket = server.accept();
+                connections.execute(() -> {
+                    try (Socket s = socket) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    } catch (IOException | UncheckedIOException e) {
+                        System.err.format("IOException: %s%n", e);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /**
+     * Replay every game of a PGN file a few times, so the JIT has compiled
+     * the replay before the first request arrives.
+     */
+    void warmUp(String path) throws IOException {
+        Worker worker = new Worker();
+        for (int round = 0; round < 5; round++) {
+            try (MappedPgnFile file = new MappedPgnFile(Paths.get(path))) {
+                while (file.hasNext()) {
+                    worker.replay(file.next(), true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Usage: java ReplayServer [-threads n] [-port n [-clients n]]
+     *     [-warmup file]
+     *
+     * Serves standard input and output, or with -port, TCP connections to
+     * that port on the loopback address, at most -clients at once (64 by
+     * default). With -warmup the games of a PGN file are replayed first
+     * to warm up the JIT.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int port = -1;
+        int clients = 64;
+        String warmup = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-clients")) {
+                clients = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-warmup")) {
+                warmup = args[++i];
+            }
+        }
+        ReplayServer server = new ReplayServer(threads);
+        if (warmup != null) {
+            server.warmUp(warmup);
+        }
+        if (port >= 0) {
+            server.listen(port, clients);
+        } else {
+            server.serve(System.in, System.out);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Replays games and hands every ply to a set of `PlyListener`s, so any
+ * number of analyses can share one pass over the games instead of each
+ * replaying them again.
+ *
+ * A Replayer reuses one board and parser for every game and allocates
+ * nothing per ply. It is not thread-safe; use one per thread.
+ */
+public class Replayer {
+
+    private final Board board = new Board();
+    private final SanMove move = new SanMove();
+    private final Movetext movetext = new Movetext();
+    private final TagSection tags = new TagSection();
+    private PlyListener[] listeners = new PlyListener[0];
+
+    public void addListener(PlyListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    public void removeListener(PlyListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                PlyListener[] rest = new PlyListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, rest, 0, i);
+                System.arraycopy(listeners, i + 1, rest, i, rest.length - i);
+                listeners = rest;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replay game, calling every listener for its start, each ply and its
+     * end.
+     *
+     * @param game the PGN text of a chess game
+     * @return the final position, which stays valid until the next replay
+     * @throws IllegalArgumentException if a move cannot be read or played
+     */
+    public Board replay(CharSequence game) {
+        PlyListener[] listeners = this.listeners;
+        tags.parse(game);
+        for (PlyListener listener : listeners) {
+            listener.startGame(game, tags);
+        }
+        board.reset();
+        movetext.reset(game, tags.movetextStart());
+        int ply = 0;
+        while (movetext.next()) {
+            if (!move.decode(game, movetext.start(), movetext.end())) {
+                throw new IllegalArgumentException("Unreadable move "
+                    + game.subSequence(movetext.start(), movetext.end()));
+            }
+            int played = PgnReader.resolveMove(board, move);
+            int to = Move.to(played);
+            int captured = board.pieceAt(to);
+            if (to == board.enPassant()
+                && Board.typeOf(board.pieceAt(Move.from(played)))
+                    == Board.PAWN) {
+                captured = Board.piece(board.sideToMove() ^ 1, Board.PAWN);
+            }
+            board.executeMove(Move.from(played), to, Move.promotion(played));
+            ply++;
+            for (PlyListener listener : listeners) {
+                listener.ply(ply, played, captured, board);
+            }
+        }
+        for (PlyListener listener : listeners) {
+            listener.endGame(ply, board);
+        }
+        return board;
+    }
+
+    /**
+     * Usage: java Replayer file
+     *
+     * Replays every game of a PGN file once and prints the number of
+     * games, plies, captures, checks, promotions and castles found.
+     */
+    public static void main(String[] args) throws IOException {
+        long[] counts = new long[6];
+        Replayer replayer = new Replayer();
+        replayer.addListener(new PlyListener() {
+            @Override
+            public void ply(int ply, int move, int captured, Board board) {
+                counts[1]++;
+                if (captured != Board.EMPTY) {
+                    counts[2]++;
+                }
+                if (MoveGenerator.inCheck(board)) {
+                    counts[3]++;
+                }
+                if (Move.promotion(move) != Board.EMPTY) {
+                    counts[4]++;
+                }
+            }
+
+            @Override
+            public void endGame(int plies, Board board) {
+                counts[0]++;
+            }
+        });
+        replayer.addListener((ply, move, captured, board) -> {
+            int piece = board.pieceAt(Move.to(move));
+            if (Board.typeOf(piece) == Board.KING
+                && Math.abs(Move.to(move) - Move.from(move)) == 2) {
+                counts[5]++;
+            }
+        });
+        try (MappedPgnFile file = new MappedPgnFile(Paths.get(args[0]))) {
+            while (file.hasNext()) {
+                replayer.replay(file.next());
+            }
+        }
+        System.out.format("games: %d  plies: %d  captures: %d  checks: %d"
+            + "  promotions: %d  castles: %d%n", counts[0], counts[1],
+            counts[2], counts[3], counts[4], counts[5]);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * A move in Standard Algebraic Notation (SAN), decoded into plain int
+ * fields. One instance is meant to be reused for every move of a replay:
+ * decode scans the move's characters once and allocates nothing.
+ *
+ * @see http://www.saremba.de/chessgml/standards/pgn/pgn-complete.htm#c8.2.3
+ */
+public class SanMove {
+
+    public static final int NO_CASTLE = 0;
+    public static final int KINGSIDE = 1;
+    public static final int QUEENSIDE = 2;
+
+    public static final int NO_CHECK = 0;
+    public static final int CHECK = 1;
+    public static final int MATE = 2;
+
+    /** Piece type from `Board`, PAWN for pawn moves. */
+    public int type;
+    /** Origin file 0-7 given for disambiguation, or -1. */
+    public int fromFile;
+    /** Origin rank 0-7 given for disambiguation, or -1. */
+    public int fromRank;
+    /** The origin squares fromFile and fromRank allow, as a bitboard. */
+    public long fromMask;
+    /** Destination square, or -1 for castling. */
+    public int to;
+    public boolean capture;
+    /** Piece type a pawn promotes to, or `Board.EMPTY`. */
+    public int promotion;
+    public int check;
+    public int castle;
+
+    /**
+     * Decode move.
+     *
+     * @param move a move in SAN, such as "Nbxd7+" or "O-O"
+     * @return whether move could be decoded
+     */
+    public boolean decode(CharSequence move) {
+        return decode(move, 0, move.length());
+    }
+
+    /**
+     * Decode the SAN move held in text[start, end).
+     *
+     * @param text the text holding the move
+     * @param start the index of the move's first character
+     * @param end the index just past the move's last character
+     * @return whether the move could be decoded
+     */
+    public boolean decode(CharSequence text, int start, int end) {
+        type = Board.PAWN;
+        fromFile = -1;
+        fromRank = -1;
+        fromMask = -1L;
+        to = -1;
+        capture = false;
+        promotion = Board.EMPTY;
+        check = NO_CHECK;
+        castle = NO_CASTLE;
+
+        // Annotations and check marks come last, so read backward.
+        while (end > start) {
+            char c = text.charAt(end - 1);
+            if (c == '+') {
+                check = CHECK;
+            } else if (c == '#') {
+                check = MATE;
+            } else if (c != '!' && c != '?') {
+                break;
+            }
+            end--;
+        }
+
+        char first = end > start ? text.charAt(start) : ' ';
+        if (first == 'O' || first == '0') {
+            int length = end - start;
+            if (length == 3) {
+                castle = KINGSIDE;
+            } else if (length == 5) {
+                castle = QUEENSIDE;
+            } else {
+                return false;
+            }
+            type = Board.KING;
+            return true;
+        }
+
+        int promoted = end > start ? pieceType(text.charAt(end - 1)) : -1;
+        if (promoted > Board.PAWN && promoted < Board.KING) {
+            promotion = promoted;
+            end--;
+            if (end > start && text.charAt(end - 1) == '=') {
+                end--;
+            }
+        }
+
+        if (end - start < 2) {
+            return false;
+        }
+        int file = text.charAt(end - 2) - 'a';
+        int rank = text.charAt(end - 1) - '1';
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            return false;
+        }
+        to = Board.square(file, rank);
+        end -= 2;
+
+        int piece = pieceType(first);
+        if (piece > Board.PAWN) {
+            type = piece;
+            start++;
+        }
+
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = c - '1';
+            } else if (c == 'x' || c == ':') {
+                capture = true;
+            } else if (c != '-') {
+                return false;
+            }
+        }
+        if (fromFile >= 0) {
+            fromMask &= Attacks.FILE_A << fromFile;
+        }
+        if (fromRank >= 0) {
+            fromMask &= Attacks.RANK_1 << (8 * fromRank);
+        }
+        return true;
+    }
+
+    /**
+     * @return the `Board` piece type named by an uppercase SAN letter, or
+     * -1
+     */
+    private static int pieceType(char letter) {
+        switch (letter) {
+        case 'N':
+            return Board.KNIGHT;
+        case 'B':
+            return Board.BISHOP;
+        case 'R':
+            return Board.ROOK;
+        case 'Q':
+            return Board.QUEEN;
+        case 'K':
+            return Board.KING;
+        default:
+            return -1;
+        }
+    }
+}
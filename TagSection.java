@@ -0,0 +1,268 @@
+import java.util.Arrays;
+
+/**
+ * The tag pair section of a PGN game, parsed once into offsets so that
+ * any number of lookups cost O(1) each.
+ *
+ * Only the start and end of each tag name and value are recorded; a
+ * value becomes a `String` when it is first asked for, with its escaped
+ * quotes and backslashes resolved. The movetext is never copied, and
+ * movetextStart tells callers where it begins. An instance may be reused
+ * for game after game.
+ *
+ * @see http://www.saremba.de/chessgml/standards/pgn/pgn-complete.htm#c8.1
+ */
+public class TagSection {
+
+    private CharSequence game;
+    private int count;
+    // Four offsets per tag: name start, name end, value start, value end.
+    private int[] offsets = new int[4 * 16];
+    private String[] values = new String[16];
+    private boolean[] escaped = new boolean[16];
+    // Open addressing table of tag index + 1, 0 when the slot is free.
+    private int[] table = new int[32];
+    private int movetextStart;
+
+    /**
+     * Parse the tag pair section at the start of game.
+     *
+     * @param game the PGN text of a chess game
+     * @return a new TagSection for game
+     */
+    public static TagSection of(CharSequence game) {
+        TagSection tags = new TagSection();
+        tags.parse(game);
+        return tags;
+    }
+
+    /**
+     * Parse the tag pair section at the start of game, replacing whatever
+     * this instance held before.
+     *
+     * @param game the PGN text of a chess game
+     */
+    public void parse(CharSequence game) {
+        this.game = game;
+        count = 0;
+        Arrays.fill(values, null);
+
+        int length = game.length();
+        int i = skipSpace(game, 0, length);
+        while (i < length && (game.charAt(i) == '['
+                || game.charAt(i) == '%')) {
+            if (game.charAt(i) == '%') {
+                // An escape line, which PGN readers ignore.
+                i = skipLine(game, i, length);
+                continue;
+            }
+            i = skipSpace(game, i + 1, length);
+            int nameStart = i;
+            while (i < length && isNameChar(game.charAt(i))) {
+                i++;
+            }
+            int nameEnd = i;
+            i = skipSpace(game, i, length);
+            if (i == length || game.charAt(i) != '"'
+                || nameStart == nameEnd) {
+                // Not a well formed tag pair; skip to the end of the line.
+                i = skipLine(game, i, length);
+                continue;
+            }
+            int valueStart = ++i;
+            boolean hasEscape = false;
+            while (i < length && game.charAt(i) != '"'
+                && game.charAt(i) != '\n') {
+                if (game.charAt(i) == '\\' && i + 1 < length
+                    && game.charAt(i + 1) != '\n') {
+                    hasEscape = true;
+                    i++;
+                }
+                i++;
+            }
+            if (i == length || game.charAt(i) != '"') {
+                // An unterminated value; drop the line rather than run on
+                // into the next tag.
+                i = skipSpace(game, i, length);
+                continue;
+            }
+            int valueEnd = i;
+            add(nameStart, nameEnd, valueStart, valueEnd, hasEscape);
+            while (i < length && game.charAt(i) != ']'
+                && game.charAt(i) != '\n') {
+                i++;
+            }
+            if (i < length && game.charAt(i) == ']') {
+                i++;
+            }
+            i = skipSpace(game, i, length);
+        }
+        movetextStart = i;
+        index();
+    }
+
+    /**
+     * @return the number of tag pairs in the section
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the index in the game of the first character after the tag
+     * pair section
+     */
+    public int movetextStart() {
+        return movetextStart;
+    }
+
+    public String name(int tag) {
+        int base = 4 * tag;
+        return game.subSequence(offsets[base], offsets[base + 1]).toString();
+    }
+
+    public String value(int tag) {
+        if (values[tag] == null) {
+            int base = 4 * tag;
+            values[tag] = escaped[tag]
+                ? unescape(game, offsets[base + 2], offsets[base + 3])
+                : game.subSequence(offsets[base + 2], offsets[base + 3])
+                    .toString();
+        }
+        return values[tag];
+    }
+
+    /**
+     * @param name the name of a tag
+     * @return the value of the named tag, or null if the game has none
+     */
+    public String get(String name) {
+        int tag = indexOf(name);
+        return tag < 0 ? null : value(tag);
+    }
+
+    /**
+     * @param name the name of a tag
+     * @return the position of the named tag in the section, or -1
+     */
+    public int indexOf(String name) {
+        int mask = table.length - 1;
+        int slot = hash(name, 0, name.length()) & mask;
+        while (table[slot] != 0) {
+            int tag = table[slot] - 1;
+            int base = 4 * tag;
+            if (nameEquals(name, offsets[base], offsets[base + 1])) {
+                return tag;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void add(int nameStart, int nameEnd, int valueStart,
+            int valueEnd, boolean hasEscape) {
+        if (count == values.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            values = Arrays.copyOf(values, values.length * 2);
+            escaped = Arrays.copyOf(escaped, escaped.length * 2);
+        }
+        int base = 4 * count;
+        offsets[base] = nameStart;
+        offsets[base + 1] = nameEnd;
+        offsets[base + 2] = valueStart;
+        offsets[base + 3] = valueEnd;
+        escaped[count] = hasEscape;
+        count++;
+    }
+
+    private void index() {
+        if (table.length < 2 * count) {
+            table = new int[Integer.highestOneBit(2 * count) * 2];
+        } else {
+            Arrays.fill(table, 0);
+        }
+        int mask = table.length - 1;
+        for (int tag = 0; tag < count; tag++) {
+            int base = 4 * tag;
+            int slot = hash(game, offsets[base], offsets[base + 1]) & mask;
+            while (table[slot] != 0) {
+                int other = table[slot] - 1;
+                if (sameName(other, tag)) {
+                    // The first of two tags with one name wins.
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == 0) {
+                table[slot] = tag + 1;
+            }
+        }
+    }
+
+    private boolean sameName(int a, int b) {
+        int baseA = 4 * a;
+        int baseB = 4 * b;
+        int length = offsets[baseA + 1] - offsets[baseA];
+        if (length != offsets[baseB + 1] - offsets[baseB]) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (game.charAt(offsets[baseA] + i)
+                != game.charAt(offsets[baseB] + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean nameEquals(String name, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != game.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static String unescape(CharSequence text, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                c = text.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '+'
+            || c == '#' || c == '=' || c == ':' || c == '-';
+    }
+
+    private static int skipSpace(CharSequence text, int i, int length) {
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLine(CharSequence text, int i, int length) {
+        while (i < length && text.charAt(i) != '\n') {
+            i++;
+        }
+        return skipSpace(text, i, length);
+    }
+}
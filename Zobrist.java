@@ -0,0 +1,52 @@
+/**
+ * Random keys for Zobrist hashing of `Board` positions.
+ *
+ * A position's hash is the XOR of the key of every piece on its square,
+ * SIDE when black is to move, the key of the castling rights and the key
+ * of the en passant file when a capture there is possible, so a move
+ * updates it with a few XORs. The keys come from a fixed seed, so hashes
+ * stay the same from run to run and can be stored in files.
+ *
+ * @see https://www.chessprogramming.org/Zobrist_Hashing
+ */
+public final class Zobrist {
+
+    static final long[][] PIECES = new long[12][64];
+    static final long SIDE;
+    static final long[] CASTLING = new long[16];
+    static final long[] EN_PASSANT = new long[8];
+
+    static {
+        long seed = 0x5DEECE66DL;
+        for (int piece = 0; piece < 12; piece++) {
+            for (int square = 0; square < 64; square++) {
+                seed += 0x9E3779B97F4A7C15L;
+                PIECES[piece][square] = mix(seed);
+            }
+        }
+        seed += 0x9E3779B97F4A7C15L;
+        SIDE = mix(seed);
+        // CASTLING[0] stays 0: a position without castling rights adds
+        // nothing.
+        for (int rights = 1; rights < 16; rights++) {
+            seed += 0x9E3779B97F4A7C15L;
+            CASTLING[rights] = mix(seed);
+        }
+        for (int file = 0; file < 8; file++) {
+            seed += 0x9E3779B97F4A7C15L;
+            EN_PASSANT[file] = mix(seed);
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * The SplitMix64 finalizer, which spreads the bits of z evenly.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
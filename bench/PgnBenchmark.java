@@ -0,0 +1,402 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the parse and replay hot paths, run over the PGN corpus
+ * in this directory: short.pgn (two classics and a set of 40-ply games),
+ * long.pgn (games of several hundred plies) and promotions.pgn (games
+ * with many promotions). Games in illegal/ each play a forbidden move and
+ * must all be rejected before anything is timed.
+ *
+ * Every benchmark is warmed up, then measured for several iterations.
+ * For each it prints the time per operation, the operations per second
+ * and the bytes allocated per operation, which is read from the thread's
+ * allocation counter the way a GC profiler would.
+ *
+ * Usage, from the project directory:
+ *
+ *     javac -d out *.java bench/PgnBenchmark.java
+ *     java -cp out PgnBenchmark [-warmup n] [-iterations n] [-time ms]
+ *         [-filter text] [dir]
+ */
+public class PgnBenchmark {
+
+    /**
+     * A benchmarked operation. run does some fixed amount of work and
+     * returns how many operations that was, plus anything computed, so
+     * that the JIT cannot discard the work.
+     */
+    interface Operation {
+        long run();
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are folded in here so no benchmark loop is dead code.
+    static volatile long sink;
+
+    private int warmup = 3;
+    private int iterations = 5;
+    private long iterationNanos = 1_000_000_000L;
+    private String filter = "";
+
+    private final List<CharSequence> games = new ArrayList<>();
+    private final List<String> movetexts = new ArrayList<>();
+    private final List<String> sans = new ArrayList<>();
+    private final List<Board> before = new ArrayList<>();
+    private final List<SanMove> decoded = new ArrayList<>();
+    private final List<int[]> played = new ArrayList<>();
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private long plies;
+
+    /**
+     * Replay the corpus once, keeping every move, the position before it
+     * and the squares it was resolved to, as inputs for the per-method
+     * benchmarks.
+     */
+    private void load(Path dir, String name) throws IOException {
+        GameCodec codec = new GameCodec();
+        int first = games.size();
+        try (MappedPgnFile file = new MappedPgnFile(dir.resolve(name))) {
+            while (file.hasNext()) {
+                games.add(file.next().toString());
+            }
+        }
+        for (int g = first; g < games.size(); g++) {
+            CharSequence game = games.get(g);
+            int start = TagSection.of(game).movetextStart();
+            movetexts.add(game.subSequence(start, game.length()).toString());
+            Board board = new Board();
+            Movetext movetext = new Movetext(game, start);
+            int[] moves = new int[1024];
+            int count = 0;
+            while (movetext.next()) {
+                SanMove move = new SanMove();
+                move.decode(game, movetext.start(), movetext.end());
+                Board copy = new Board();
+                copy.copyFrom(board);
+                sans.add(game.subSequence(movetext.start(),
+                    movetext.end()).toString());
+                before.add(copy);
+                decoded.add(move);
+                moves[count++] = PgnReader.playMove(board, move);
+            }
+            played.add(Arrays.copyOf(moves, count));
+            codec.encode(game, encoded);
+            plies += count;
+        }
+    }
+
+    private void measure(String name, Operation operation) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < warmup; i++) {
+            iterate(operation);
+        }
+        double nanosPerOp = 0;
+        double bytesPerOp = 0;
+        for (int i = 0; i < iterations; i++) {
+            double[] result = iterate(operation);
+            nanosPerOp += result[0] / iterations;
+            bytesPerOp += result[1] / iterations;
+        }
+        System.out.format("%-32s %12.1f ns/op %14.0f ops/s %10.1f B/op%n",
+            name, nanosPerOp, 1e9 / nanosPerOp, bytesPerOp);
+    }
+
+    /**
+     * Run operation for about one iteration's time.
+     *
+     * @return the nanoseconds and bytes allocated per operation
+     */
+    private double[] iterate(Operation operation) {
+        long thread = Thread.currentThread().getId();
+        long ops = 0;
+        long bytes = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            ops += operation.run();
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+        return new double[] {(double) elapsed / ops, (double) bytes / ops};
+    }
+
+    private void run() {
+        System.out.format("Corpus: %d games, %d plies%n", games.size(),
+            plies);
+        int moveCount = sans.size();
+
+        measure("listMoves (per game)", () -> {
+            long n = 0;
+            for (String movetext : movetexts) {
+                n += listMoves(movetext).length;
+            }
+            sink += n;
+            return movetexts.size();
+        });
+        measure("Movetext.next (per game)", () -> {
+            Movetext movetext = new Movetext();
+            long n = 0;
+            for (String text : movetexts) {
+                movetext.reset(text, 0);
+                while (movetext.next()) {
+                    n += movetext.end();
+                }
+            }
+            sink += n;
+            return movetexts.size();
+        });
+        measure("SanMove.decode", () -> {
+            SanMove move = new SanMove();
+            long n = 0;
+            for (String san : sans) {
+                move.decode(san);
+                n += move.to;
+            }
+            sink += n;
+            return moveCount;
+        });
+        measure("TagSection.parse", () -> {
+            TagSection tags = new TagSection();
+            long n = 0;
+            for (CharSequence game : games) {
+                tags.parse(game);
+                n += tags.movetextStart();
+            }
+            sink += n;
+            return games.size();
+        });
+        measure("Board.determineMove", () -> {
+            long n = 0;
+            for (int i = 0; i < moveCount; i++) {
+                SanMove move = decoded.get(i);
+                if (move.castle == SanMove.NO_CASTLE) {
+                    Board board = before.get(i);
+                    n += board.determineMove(
+                        Board.piece(board.sideToMove(), move.type), move.to,
+                        move.fromMask, move.capture);
+                }
+            }
+            sink += n;
+            return moveCount;
+        });
+        measure("Board.isValidMove", () -> {
+            long n = 0;
+            int m = 0;
+            for (int[] moves : played) {
+                for (int move : moves) {
+                    Board board = before.get(m++);
+                    int from = Move.from(move);
+                    if (board.isValidMove(board.pieceAt(from), from,
+                        Move.to(move))) {
+                        n++;
+                    }
+                }
+            }
+            sink += n;
+            return moveCount;
+        });
+        measure("Board.executeMove", () -> {
+            Board board = new Board();
+            long n = 0;
+            for (int[] moves : played) {
+                board.reset();
+                for (int move : moves) {
+                    board.executeMove(Move.from(move), Move.to(move),
+                        Move.promotion(move));
+                }
+                n += board.hash();
+            }
+            sink += n;
+            return moveCount;
+        });
+        measure("Board.makeMove/unmakeMove", () -> {
+            Board board = new Board();
+            long n = 0;
+            for (int[] moves : played) {
+                board.reset();
+                for (int move : moves) {
+                    board.makeMove(Move.from(move), Move.to(move),
+                        Move.promotion(move));
+                }
+                n += board.hash();
+                for (int i = 0; i < moves.length; i++) {
+                    board.unmakeMove();
+                }
+                n += board.hash();
+            }
+            sink += n;
+            return 2 * moveCount;
+        });
+        measure("Evaluator.evaluate", () -> {
+            long n = 0;
+            for (Board board : before) {
+                n += Evaluator.evaluate(board);
+            }
+            sink += n;
+            return moveCount;
+        });
+        measure("convertBoard", () -> {
+            long n = 0;
+            for (int i = 0; i < moveCount; i += 8) {
+                n += PgnReader.convertBoard(before.get(i)).length();
+            }
+            sink += n;
+            return (moveCount + 7) / 8;
+        });
+        ByteBuffer binary = ByteBuffer.wrap(encoded.toByteArray());
+        measure("GameCodec.replay (games)", () -> {
+            Board board = new Board();
+            long n = 0;
+            binary.clear();
+            while (binary.hasRemaining()) {
+                n += GameCodec.replay(binary, board);
+            }
+            sink += n + board.hash();
+            return games.size();
+        });
+        measure("finalPosition (games)", () -> {
+            long n = 0;
+            for (CharSequence game : games) {
+                n += PgnReader.finalPosition(game).length();
+            }
+            sink += n;
+            return games.size();
+        });
+    }
+
+    /**
+     * Replay every game in the illegal/ directory, each of which plays a
+     * move the rules forbid, and fail if any of them is accepted.
+     */
+    private static void checkIllegal(Path dir) throws IOException {
+        Path illegal = dir.resolve("illegal");
+        if (!Files.isDirectory(illegal)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(illegal)) {
+            list.filter(p -> p.toString().endsWith(".pgn")).sorted()
+                .forEach(files::add);
+        }
+        Replayer replayer = new Replayer();
+        int rejected = 0;
+        for (Path path : files) {
+            try (MappedPgnFile file = new MappedPgnFile(path)) {
+                while (file.hasNext()) {
+                    CharSequence game = file.next();
+                    try {
+                        replayer.replay(game);
+                    } catch (IllegalArgumentException e) {
+                        rejected++;
+                        continue;
+                    }
+                    throw new IllegalStateException(path + ":"
+                        + file.gameOffset() + ": illegal game replayed");
+                }
+            }
+        }
+        System.out.format("Illegal: %d games rejected%n", rejected);
+    }
+
+    /**
+     * Replay every game of a corpus file straight from its mapping and
+     * report games per second.
+     */
+    private void throughput(Path dir, String name) throws IOException {
+        Path path = dir.resolve(name);
+        String label = "games/s " + name;
+        if (!label.contains(filter)) {
+            return;
+        }
+        measure(label, () -> {
+            long n = 0;
+            long count = 0;
+            try (MappedPgnFile file = new MappedPgnFile(path)) {
+                while (file.hasNext()) {
+                    n += PgnReader.finalPosition(file.next()).length();
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            sink += n;
+            return count;
+        });
+    }
+
+    /**
+     * Split movetext into SAN moves with regular expressions, the way
+     * PgnReader once did, as the baseline Movetext is measured against.
+     */
+    static String[] listMoves(String game) {
+        String[] messyMoves = game.split("\\d+\\.");
+        int numberOfMoves = messyMoves.length * 2 - 2;
+        String[] cleanMoves = new String[numberOfMoves];
+        int j = 0;
+
+        for (int i = 1; i < messyMoves.length; i++) {
+            String[] movePair = messyMoves[i].split(" ");
+            if (movePair.length == 3) {
+                cleanMoves[j] = movePair[1].replaceAll("\\s", "");
+                cleanMoves[j + 1] = movePair[2].replaceAll("\\s", "");
+                j += 2;
+            } else {
+                cleanMoves[j] = movePair[1].replaceAll("\\s", "");
+            }
+        }
+
+        if (cleanMoves[cleanMoves.length - 1] == null) {
+            return Arrays.copyOf(cleanMoves, cleanMoves.length - 1);
+        }
+        return cleanMoves;
+    }
+
+    public static void main(String[] args) throws IOException {
+        PgnBenchmark bench = new PgnBenchmark();
+        Path dir = Paths.get("bench");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-warmup")) {
+                bench.warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-iterations")) {
+                bench.iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-time")) {
+                bench.iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+            } else if (args[i].equals("-filter")) {
+                bench.filter = args[++i];
+            } else {
+                dir = Paths.get(args[i]);
+            }
+        }
+
+        List<String> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            list.map(p -> p.getFileName().toString())
+                .filter(n -> n.endsWith(".pgn"))
+                .sorted()
+                .forEach(files::add);
+        }
+        checkIllegal(dir);
+        for (String file : files) {
+            bench.load(dir, file);
+        }
+        bench.run();
+        for (String file : files) {
+            bench.throughput(dir, file);
+        }
+    }
+}